@@ -0,0 +1,113 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools;
+
+import static org.usrz.libs.utils.Charsets.UTF8;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.testing.IO;
+import org.usrz.libs.webtools.lesscss.LessCSS;
+import org.usrz.libs.webtools.resources.ResourceManager;
+import org.usrz.libs.webtools.uglifyjs.UglifyJS;
+import org.usrz.libs.webtools.utils.ScriptBackends;
+
+/**
+ * Compare our {@link ScriptBackends} compiling the bundled <em>Bootstrap</em>
+ * and {@code test.js} fixtures (iterations can be changed with the
+ * {@code benchmark.iterations} system property).
+ * <p>
+ * This lives outside of our tests (it's way too slow to run with them) and
+ * is run with {@code ant benchmark}.
+ */
+public class ScriptBackendsBenchmark extends AbstractTest {
+
+    private static final int ITERATIONS = Integer.getInteger("benchmark.iterations", 3);
+
+    private final Log log = new Log();
+    private ResourceManager manager;
+
+    @BeforeClass
+    public void setupManager() {
+        final File directory = new File(this.getClass().getResource("import.less").getPath()).getParentFile();
+        manager = new ResourceManager(directory, UTF8);
+    }
+
+    @DataProvider(name = "backends")
+    public Object[][] backends() {
+        final ScriptBackends[] backends = ScriptBackends.values();
+        final Object[][] parameters = new Object[backends.length][];
+        for (int x = 0; x < backends.length; x ++) parameters[x] = new Object[] { backends[x] };
+        return parameters;
+    }
+
+    @Test(dataProvider = "backends", groups = "benchmark")
+    public void benchmarkLessCSS(ScriptBackends backend)
+    throws Exception {
+        final String css = new String(IO.read("bootstrap.min.css"), UTF8);
+        final LessCSS lessc = create(backend, () -> new LessCSS(backend));
+
+        benchmark(backend, "LessCSS", () -> {
+            assertEquals(lessc.convert(manager.getResource("bootstrap/bootstrap.less"), true), css);
+        });
+    }
+
+    @Test(dataProvider = "backends", groups = "benchmark")
+    public void benchmarkUglifyJS(ScriptBackends backend)
+    throws Exception {
+        final String script = new String(IO.read("test.js"), UTF8);
+        final String min = new String(IO.read("test.cm.min.js"), UTF8);
+        final UglifyJS uglify = create(backend, () -> new UglifyJS(backend));
+
+        benchmark(backend, "UglifyJS", () -> {
+            assertEquals(uglify.convert(script, true, true), min);
+        });
+    }
+
+    /* ====================================================================== */
+
+    /* Create an engine, timing the first and the second instance */
+    private <T> T create(ScriptBackends backend, Supplier<T> supplier) {
+        try {
+            final long first = System.nanoTime();
+            supplier.get();
+            final long second = System.nanoTime();
+            final T engine = supplier.get();
+            final long created = System.nanoTime();
+            log.info("%s: first instance in %d ms, second in %d ms", backend,
+                     (second - first) / 1000000, (created - second) / 1000000);
+            return engine;
+        } catch (RuntimeException exception) {
+            throw new SkipException("Backend " + backend + " not available", exception);
+        }
+    }
+
+    /* Warm up once, then time our iterations */
+    private void benchmark(ScriptBackends backend, String name, Runnable conversion) {
+        conversion.run();
+        final long started = System.nanoTime();
+        for (int x = 0; x < ITERATIONS; x ++) conversion.run();
+        final long elapsed = System.nanoTime() - started;
+        log.info("%s: %s average %d ms over %d iterations", backend, name, elapsed / ITERATIONS / 1000000, ITERATIONS);
+    }
+}
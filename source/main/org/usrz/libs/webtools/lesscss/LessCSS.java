@@ -16,79 +16,88 @@
 package org.usrz.libs.webtools.lesscss;
 
 import static java.util.Collections.singletonMap;
-import static org.usrz.libs.utils.Charsets.UTF8;
+import static org.usrz.libs.utils.Check.notNull;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
-import javax.script.Invocable;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
 
 import org.usrz.libs.logging.Log;
 import org.usrz.libs.webtools.resources.Resource;
+import org.usrz.libs.webtools.resources.Resources;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
+import org.usrz.libs.webtools.utils.ScriptLibrary;
 
 /**
  * A simple wrapper for <a href="http://lesscss.org/">LessCSS</a>.
+ * <p>
+ * Instances are not thread-safe (see {@link LessCSSPool}), but they are
+ * cheap to create: the <em>LessCSS</em> scripts are compiled only once, and
+ * each instance simply evaluates them in its own {@link ScriptContext}.
  *
  * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
  */
 public class LessCSS {
 
-    private static final String ENGINE_TYPE = "application/javascript";
-    private static final String LESS_RESOURCE = "less-rhino-1.7.4.js";
+    /** The version of <em>LessCSS</em> wrapped by this class. */
+    public static final String VERSION = "1.7.4";
+
+    private static final String LESS_RESOURCE = "less-rhino-" + VERSION + ".js";
     private static final String ADAPTER_RESOURCE = "less-adapter.js";
+    private static final String SOURCE_MAP_RESOURCE = "/org/usrz/libs/webtools/utils/source-map.js";
+
+    /* Our scripts, compiled once per backend and shared by all instances */
+    private static final Map<ScriptBackend, ScriptLibrary> LIBRARIES = new HashMap<>();
 
-    private final ThreadLocal<Resource> resources = new ThreadLocal<>();
+    private final ThreadLocal<Resources> resources = new ThreadLocal<>();
 
-    private final ScriptEngineManager manager = new ScriptEngineManager(this.getClass().getClassLoader());
-    private final ScriptEngine engine = manager.getEngineByMimeType(ENGINE_TYPE);
-    private final Invocable invocable = (Invocable) engine;
+    private final ScriptLibrary scripts;
+    private final ScriptContext context;
     private final Log log = new Log();
 
     /**
-     * Create a new {@link LessCSS} engine.
+     * Create a new {@link LessCSS} engine with the
+     * {@linkplain ScriptBackends#DEFAULT default} {@link ScriptBackend}.
      */
     public LessCSS() {
+        this(ScriptBackends.DEFAULT);
+    }
+
+    /**
+     * Create a new {@link LessCSS} engine with the specified {@link ScriptBackend}.
+     */
+    public LessCSS(ScriptBackend backend) {
         try {
-            engine.put(ScriptEngine.FILENAME, LESS_RESOURCE);
-            final InputStream lessInput = this.getClass().getResourceAsStream(LESS_RESOURCE);
-            if (lessInput == null) throw new IOException("Resource " + LESS_RESOURCE + " not found");
-            final InputStreamReader lessReader = new InputStreamReader(lessInput, UTF8);
-            engine.eval(lessReader);
-            lessReader.close();
-
-            engine.put(ScriptEngine.FILENAME, ADAPTER_RESOURCE);
-            final InputStream adapterInput = this.getClass().getResourceAsStream(ADAPTER_RESOURCE);
-            if (adapterInput == null) throw new IOException("Resource " + ADAPTER_RESOURCE + " not found");
-            final InputStreamReader adapterReader = new InputStreamReader(adapterInput, UTF8);
-            engine.eval(adapterReader);
-            adapterReader.close();
+            scripts = library(backend);
+            context = scripts.newContext();
         } catch (Exception exception) {
             throw new LessCSSException("Unable to initialize LESS engine", exception);
         }
 
         /* Our file getter for @include */
-        engine.getBindings(ScriptContext.ENGINE_SCOPE).put("_less_file_getter",
+        context.getBindings(ScriptContext.ENGINE_SCOPE).put("_less_file_getter",
 
                 /* Use lamba, easier */
                 (Function<String, String>) (file) -> {
 
                     /* Check that we have a resource useable to resolve relative files */
-                    final Resource originalResource = resources.get();
-                    if (originalResource == null) {
+                    final Resources originalResources = resources.get();
+                    if (originalResources == null) {
                         log.warn("Unable to @import \"%s\" when converting a string", file);
                         return null;
                     }
 
                     /* Less already "resolves" path names for us, use the manager */
-                    final Resource resource = originalResource.getResourceManager().getResource(file);
+                    final Resource resource = originalResources.resource().getResourceManager().getResource(file);
                     if (resource != null) {
+                        /* Remember what we imported */
+                        originalResources.with(resource);
                         final String less = resource.readString();
                         if (less != null) {
                             log.debug("Resource \"%s\" imported from \"%s\"", file, resource.getFile().getAbsolutePath());
@@ -112,7 +121,7 @@ public class LessCSS {
 
         try {
             final Map<String, Object> options = singletonMap("compress", compress);
-            final Object css = invocable.invokeFunction("_less_process", less, options);
+            final Object css = scripts.invoke(context, "_less_process", less, options);
             return css == null ? null : css instanceof String ? (String) css : css.toString();
         } catch (Exception exception) {
             throw new LessCSSException("Unable to convert LESS script", exception);
@@ -124,9 +133,35 @@ public class LessCSS {
      * optionally compressing it.
      */
     public String convert(Resource resource, boolean compress) {
+        return resource == null ? null : convert(new Resources(resource), compress);
+    }
+
+    /**
+     * Convert the {@linkplain Resources#resource() main} <em>LessCSS</em>
+     * source file of the specified {@link Resources} into a <em>CSS</em>
+     * optionally compressing it.
+     * <p>
+     * All files imported while converting will be added to the specified
+     * {@link Resources}, so that changes to any of them can be detected.
+     */
+    public String convert(Resources resources, boolean compress) {
+        return convert(resources, compress, null);
+    }
+
+    /**
+     * Convert the {@linkplain Resources#resource() main} <em>LessCSS</em>
+     * source file of the specified {@link Resources} into a <em>CSS</em>
+     * optionally compressing it, and writing its <em>source map</em> (if
+     * the {@link Consumer} is not {@code null}).
+     * <p>
+     * Source maps embed the contents of all source files, named relative
+     * to the directory of the main one.
+     */
+    public String convert(Resources resources, boolean compress, Consumer<String> sourceMap) {
 
         /* Be kind if the resource does not exist */
-        if (resource == null) return null;
+        if (resources == null) return null;
+        final Resource resource = resources.resource();
         final String less = resource.readString();
         if (less == null) return null;
 
@@ -135,17 +170,38 @@ public class LessCSS {
         options.put("filename", resource.getPath());
         options.put("compress", compress);
 
-        /* Remember our resource in the threadlocal */
-        resources.set(resource);
+        /* Source maps live alongside our resource */
+        if (sourceMap != null) {
+            final String path = resource.getPath();
+            final int slash = path.lastIndexOf('/');
+            if (slash > 0) options.put("sourceMapBasepath", path.substring(0, slash));
+            options.put("source_map", sourceMap);
+        }
+
+        /* Remember our resources in the threadlocal */
+        this.resources.set(resources);
 
         try {
             /* Go! */
-            final Object css = invocable.invokeFunction("_less_process", less, options);
+            final Object css = scripts.invoke(context, "_less_process", less, options);
             return css == null ? null : css instanceof String ? (String) css : css.toString();
         } catch (Exception exception) {
             throw new LessCSSException("Unable to convert LESS script at " + resource.getFile().getAbsolutePath(), exception);
         } finally {
-            resources.remove();
+            this.resources.remove();
         }
     }
+
+    /* ====================================================================== */
+
+    /* Compile our scripts when the first instance (per backend) is created */
+    private static synchronized ScriptLibrary library(ScriptBackend backend)
+    throws IOException, ScriptException {
+        final ScriptLibrary library = LIBRARIES.get(notNull(backend, "Null backend"));
+        if (library != null) return library;
+
+        final ScriptLibrary created = new ScriptLibrary(backend, LessCSS.class, LESS_RESOURCE, SOURCE_MAP_RESOURCE, ADAPTER_RESOURCE);
+        LIBRARIES.put(backend, created);
+        return created;
+    }
 }
@@ -0,0 +1,147 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.lesscss;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.usrz.libs.webtools.resources.Resources;
+import org.usrz.libs.webtools.utils.EnginePool;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
+
+/**
+ * A thread-safe wrapper for <a href="http://lesscss.org/">LessCSS</a>,
+ * converting concurrently with a pool of {@link LessCSS} engines.
+ * <p>
+ * Engines failing a conversion are discarded (and replaced) unless they
+ * can still convert a trivial <em>LessCSS</em> source.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public class LessCSSPool implements Closeable {
+
+    private static final String HEALTH_CHECK_LESS = "@color: red; a { color: @color; }";
+    private static final String HEALTH_CHECK_CSS = "color:red";
+
+    private final EnginePool<LessCSS> pool;
+
+    /**
+     * Create a new {@link LessCSSPool} with as many engines as the number
+     * of available processors.
+     */
+    public LessCSSPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new {@link LessCSSPool} with at most the specified number of
+     * engines.
+     */
+    public LessCSSPool(int size) {
+        this(size, ScriptBackends.DEFAULT);
+    }
+
+    /**
+     * Create a new {@link LessCSSPool} with at most the specified number of
+     * engines, using the specified {@link ScriptBackend}.
+     */
+    public LessCSSPool(int size, ScriptBackend backend) {
+        notNull(backend, "Null backend");
+        pool = new EnginePool<>("LessCSS", size, () -> new LessCSS(backend), LessCSSPool::healthy);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Convert the specified <em>LessCSS</em> source into a <em>CSS</em>
+     * optionally compressing it.
+     *
+     * @see LessCSS#convert(String, boolean)
+     */
+    public String convert(String less, boolean compress) {
+        return convert((lessc) -> lessc.convert(less, compress));
+    }
+
+    /**
+     * Convert the {@linkplain Resources#resource() main} <em>LessCSS</em>
+     * source file of the specified {@link Resources} into a <em>CSS</em>
+     * optionally compressing it.
+     *
+     * @see LessCSS#convert(Resources, boolean)
+     */
+    public String convert(Resources resources, boolean compress) {
+        return convert(resources, compress, null);
+    }
+
+    /**
+     * Convert the {@linkplain Resources#resource() main} <em>LessCSS</em>
+     * source file of the specified {@link Resources} into a <em>CSS</em>
+     * optionally compressing it, and writing its <em>source map</em> (if
+     * the {@link Consumer} is not {@code null}).
+     *
+     * @see LessCSS#convert(Resources, boolean, Consumer)
+     */
+    public String convert(Resources resources, boolean compress, Consumer<String> sourceMap) {
+        return convert((lessc) -> lessc.convert(resources, compress, sourceMap));
+    }
+
+    /**
+     * Return the {@link EnginePool} used by this instance.
+     */
+    public EnginePool<LessCSS> getPool() {
+        return pool;
+    }
+
+    /**
+     * Close this instance, dropping all its engines.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /* ====================================================================== */
+
+    /* Borrow an engine, convert, and give it back (checked, on failures) */
+    private String convert(Function<LessCSS, String> conversion) {
+        final LessCSS lessc;
+        try {
+            lessc = pool.borrow();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new LessCSSException("Interrupted waiting for a LESS engine", exception);
+        }
+
+        boolean failed = true;
+        try {
+            final String css = conversion.apply(lessc);
+            failed = false;
+            return css;
+        } finally {
+            pool.release(lessc, failed);
+        }
+    }
+
+    /* Our health check: can the engine still convert something trivial? */
+    private static boolean healthy(LessCSS lessc) {
+        final String css = lessc.convert(HEALTH_CHECK_LESS, true);
+        return (css != null) && css.contains(HEALTH_CHECK_CSS);
+    }
+}
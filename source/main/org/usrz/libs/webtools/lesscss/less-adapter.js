@@ -61,6 +61,16 @@ var _less_process = function(input, optionsMap) {
   var options = {};
   for (var key in optionsMap) options[key] = optionsMap[key];
 
+  /* Source map requested? Write it to our (Java) consumer */
+  var sourceMapConsumer = options['source_map'];
+  if (sourceMapConsumer) {
+    delete options['source_map'];
+    options.sourceMap = true;
+    options.outputSourceFiles = true;
+    options.sourceMapGenerator = MOZ_SourceMap.SourceMapGenerator;
+    options.writeSourceMap = function(map) { sourceMapConsumer.accept(map) };
+  }
+
   var result;
   var error;
 
@@ -0,0 +1,80 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.mustache;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.IOException;
+
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.webtools.resources.ServeResource;
+
+import com.google.common.base.Function;
+
+/**
+ * A <em>Mustache</em> function rewriting asset paths into their
+ * {@linkplain ServeResource#fingerprint(String) fingerprinted} versions.
+ * <p>
+ * Once this is in scope (for example as {@code fingerprint}), templates
+ * can simply say:
+ * <pre>
+ * &lt;link rel="stylesheet" href="{{#fingerprint}}/resources/css/app.css{{/fingerprint}}"&gt;
+ * </pre>
+ * <p>
+ * The optional prefix (for example {@code /resources/}, where the
+ * {@link ServeResource} is mounted) is stripped before fingerprinting, and
+ * added back afterwards.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public class FingerprintFunction implements Function<String, String> {
+
+    private final Log log = new Log();
+    private final ServeResource resources;
+    private final String prefix;
+
+    /**
+     * Create a new {@link FingerprintFunction} for paths relative to the
+     * root of the specified {@link ServeResource}.
+     */
+    public FingerprintFunction(ServeResource resources) {
+        this(resources, "");
+    }
+
+    /**
+     * Create a new {@link FingerprintFunction} for paths starting with the
+     * specified prefix.
+     */
+    public FingerprintFunction(ServeResource resources, String prefix) {
+        this.resources = notNull(resources, "Null ServeResource");
+        this.prefix = notNull(prefix, "Null prefix");
+    }
+
+    @Override
+    public String apply(String input) {
+        if (input == null) return null;
+
+        final String path = input.trim();
+        if (! path.startsWith(prefix)) return path;
+
+        try {
+            return prefix + resources.fingerprint(path.substring(prefix.length()));
+        } catch (IOException | RuntimeException exception) {
+            log.warn(exception, "Unable to fingerprint \"%s\"", path);
+            return path;
+        }
+    }
+}
@@ -17,6 +17,7 @@ package org.usrz.libs.webtools.mustache;
 
 import static org.usrz.libs.utils.Check.notNull;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.Reader;
@@ -26,6 +27,8 @@ import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 
+import javax.annotation.PreDestroy;
+
 import org.usrz.libs.logging.Log;
 import org.usrz.libs.webtools.resources.Resource;
 import org.usrz.libs.webtools.resources.ResourceManager;
@@ -42,7 +45,7 @@ import com.google.common.cache.LoadingCache;
 
 public class MustacheTemplateManager
 extends MustacheTemplateFactory
-implements TemplateManager {
+implements TemplateManager, Closeable {
 
     private static final Log log = new Log();
 
@@ -81,6 +84,16 @@ implements TemplateManager {
         return new MustacheTemplate(this, name + ".mustache");
     }
 
+    /**
+     * Close the {@link ResourceManager} templates are read from, and stop
+     * watching for changes (if watching at all).
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        factory.manager.close();
+    }
+
     /* ====================================================================== */
 
     protected Entry<Mustache, Resources> compileTemplate(String name) {
@@ -15,10 +15,6 @@
  * ========================================================================== */
 package org.usrz.libs.webtools.mustache;
 
-import static org.usrz.libs.utils.Charsets.UTF8;
-
-import java.nio.charset.Charset;
-
 import javax.inject.Inject;
 
 import org.usrz.libs.configurations.Configurations;
@@ -34,8 +30,6 @@ public class MustacheTemplateManagerProvider extends ConfigurableProvider<Mustac
 
     @Override
     protected MustacheTemplateManager get(Configurations configurations) {
-        final Charset charset = Charset.forName(configurations.get("charset", UTF8.name()));
-        final ResourceManager manager = new ResourceManager(configurations.requireFile("root_path"), charset);
-        return new MustacheTemplateManager(manager);
+        return new MustacheTemplateManager(new ResourceManager(configurations));
     }
 }
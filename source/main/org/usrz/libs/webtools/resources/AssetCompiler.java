@@ -0,0 +1,273 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.ws.rs.core.MediaType;
+
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.webtools.lesscss.LessCSS;
+import org.usrz.libs.webtools.lesscss.LessCSSPool;
+import org.usrz.libs.webtools.uglifyjs.UglifyJS;
+import org.usrz.libs.webtools.uglifyjs.UglifyJSPool;
+import org.usrz.libs.webtools.utils.MediaTypes;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+/**
+ * The processing pipeline shared by {@link ServeResource} (at runtime) and
+ * {@link AssetsBuilder} (offline): <em>LessCSS</em> compilation, JavaScript
+ * minification and JSON normalization.
+ * <p>
+ * The <em>JavaScript</em> engines backing {@link LessCSS} and
+ * {@link UglifyJS} are only created when first needed, and pooled (see
+ * {@link LessCSSPool} and {@link UglifyJSPool}) so that several resources
+ * can be compiled concurrently.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class AssetCompiler {
+
+    private final Log log = new Log();
+
+    private final MediaType jsonMediaType;
+    private final MediaType styleMediaType;
+    private final MediaType scriptMediaType;
+
+    private final JsonFactory json;
+    private final LessCSSPool lxess;
+    private final UglifyJSPool uglify;
+
+    private final boolean minify;
+    private final String charsetName;
+
+    AssetCompiler(Charset charset, boolean minify) {
+        this(charset, minify, Runtime.getRuntime().availableProcessors(), ScriptBackends.DEFAULT);
+    }
+
+    AssetCompiler(Charset charset, boolean minify, int engines, ScriptBackend backend) {
+        charsetName = notNull(charset, "Null charset").name();
+        lxess = new LessCSSPool(engines, backend);
+        uglify = new UglifyJSPool(engines, backend);
+        this.minify = minify;
+
+        jsonMediaType = new MediaType("application", "json").withCharset(charsetName);
+        styleMediaType = new MediaType("text", "css").withCharset(charsetName);
+        scriptMediaType = new MediaType("application", "javascript").withCharset(charsetName);
+
+        /* Our Json factory, able to read all sorts of weird schtuff */
+        json = new JsonFactory()
+                /* Factory features */
+                .disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES)
+                .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+                /* Parser features */
+                .enable(JsonParser.Feature.ALLOW_BACKSLASH_ESCAPING_ANY_CHARACTER)
+                .enable(JsonParser.Feature.ALLOW_COMMENTS)
+                .enable(JsonParser.Feature.ALLOW_NUMERIC_LEADING_ZEROS)
+                .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+                .enable(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS)
+                .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
+                .disable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS)
+                .disable(JsonParser.Feature.ALLOW_YAML_COMMENTS)
+                .disable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION)
+                /* Generator features */
+                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
+                .enable(JsonGenerator.Feature.ESCAPE_NON_ASCII)
+                .enable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+                .enable(JsonGenerator.Feature.QUOTE_FIELD_NAMES)
+                .enable(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN)
+                .disable(JsonGenerator.Feature.QUOTE_NON_NUMERIC_NUMBERS)
+                .disable(JsonGenerator.Feature.STRICT_DUPLICATE_DETECTION)
+                .disable(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return a description of the compilers (and their options) used by
+     * this instance: whenever this changes, so might any compiled output.
+     */
+    String options() {
+        return "less=" + LessCSS.VERSION
+            + ",uglifyjs=" + UglifyJS.VERSION
+            + ",minify=" + minify
+            + ",charset=" + charsetName;
+    }
+
+    /**
+     * Close this instance, dropping all its <em>LessCSS</em> and
+     * <em>UglifyJS</em> engines.
+     */
+    void close() {
+        lxess.close();
+        uglify.close();
+    }
+
+    /**
+     * Return the {@link MediaType} of processed <em>JavaScript</em>.
+     */
+    MediaType scriptType() {
+        return scriptMediaType;
+    }
+
+    /**
+     * Return the {@link MediaType} of processed <em>CSS</em> (and
+     * <em>LessCSS</em>).
+     */
+    MediaType styleType() {
+        return styleMediaType;
+    }
+
+    /**
+     * Check whether files with the specified name need processing.
+     */
+    boolean processable(String fileName) {
+        return fileName.endsWith(".less") || fileName.endsWith(".json")
+            || (minify && (fileName.endsWith(".css") || fileName.endsWith(".js")));
+    }
+
+    /**
+     * Return the {@link MediaType} to serve files with the specified name
+     * with (after processing, if they need any).
+     */
+    MediaType type(String fileName) {
+        if ((fileName.endsWith(".css") && minify) || fileName.endsWith(".less")) return styleMediaType;
+        if (fileName.endsWith(".js") && minify) return scriptMediaType;
+        if (fileName.endsWith(".json")) return jsonMediaType;
+
+        /* If text/* or application/javascript, append encoding */
+        final MediaType type = MediaTypes.get(fileName);
+        if (type.getType().equals("text") || scriptMediaType.isCompatible(type)) {
+            return type.withCharset(charsetName);
+        }
+        return type;
+    }
+
+    /**
+     * Process the {@linkplain Resources#resource() main} resource of the
+     * specified {@link Resources}, adding to them all the other resources
+     * it depends on.
+     */
+    String compile(Resources resources)
+    throws IOException {
+        return compile(resources, null);
+    }
+
+    /**
+     * Process the {@linkplain Resources#resource() main} resource of the
+     * specified {@link Resources}, adding to them all the other resources
+     * it depends on, and writing the <em>source map</em> of the result (for
+     * <em>LessCSS</em> and <em>JavaScript</em>) to the specified
+     * {@link Consumer} (if not {@code null}).
+     */
+    String compile(Resources resources, Consumer<String> sourceMap)
+    throws IOException {
+        final Resource resource = resources.resource();
+        final String fileName = resource.getFile().getName();
+
+        /* What to do, what to do? */
+        if ((fileName.endsWith(".css") && minify) || fileName.endsWith(".less")) {
+
+            /* Lessify CSS, remembering all imported resources */
+            log.debug("Lessifying resource \"%s\"", fileName);
+            return lxess.convert(resources, minify, sourceMap);
+
+        } else if (fileName.endsWith(".js") && minify) {
+
+            /* Uglify JavaScript */
+            log.debug("Uglifying resource \"%s\"", fileName);
+            return uglify.convert(resource.readString(), fileName, minify, minify, sourceMap);
+
+        } else if (fileName.endsWith(".json")) {
+
+            /* Strip comments and normalize JSON */
+            log.debug("Normalizing JSON resource \"%s\"", fileName);
+
+            /* All to do with Jackson */
+            final Reader reader = resource.read();
+            final StringWriter writer = new StringWriter();
+            final JsonParser parser = json.createParser(reader);
+            final JsonGenerator generator = json.createGenerator(writer);
+
+            /* Not minifying? Means pretty printing! */
+            if (!minify) generator.useDefaultPrettyPrinter();
+
+            /* Get our schtuff through the pipeline */
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+            generator.flush();
+            generator.close();
+            reader.close();
+            parser.close();
+
+            /* Normalized results... */
+            return writer.toString();
+
+        } else {
+            throw new IllegalArgumentException("Resource \"" + resource.getPath() + "\" can not be processed");
+        }
+    }
+
+    /**
+     * Process all the specified members (either all <em>JavaScript</em>, or
+     * all <em>CSS</em> and <em>LessCSS</em>) as a single bundle, adding
+     * them and all the resources they depend on to the specified
+     * {@link Resources}.
+     */
+    String bundle(List<Resource> members, Resources resources)
+    throws IOException {
+        final StringBuilder bundle = new StringBuilder();
+
+        /* Scripts are concatenated first, then uglified all together */
+        if (members.get(0).getFile().getName().endsWith(".js")) {
+            for (Resource member: members) {
+                bundle.append(member.readString()).append("\n;\n");
+                resources.with(member);
+            }
+
+            if (! minify) return bundle.toString();
+            log.debug("Uglifying bundle of %d resources", members.size());
+            return uglify.convert(bundle.toString(), minify, minify);
+        }
+
+        /* Styles are lessified one by one (imports are relative to each) */
+        for (Resource member: members) {
+            final String fileName = member.getFile().getName();
+            if (processable(fileName)) {
+                final Resources imports = new Resources(member);
+                bundle.append(lxess.convert(imports, minify));
+                imports.subResources().forEach(resources::with);
+            } else {
+                bundle.append(member.readString());
+            }
+            if (! minify) bundle.append('\n');
+            resources.with(member);
+        }
+        return bundle.toString();
+    }
+}
@@ -0,0 +1,178 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.usrz.libs.utils.Charsets.UTF8;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.logging.Logging;
+
+/**
+ * Precompile a tree of resources <em>offline</em>, running them through the
+ * very same pipeline used by {@link ServeResource}.
+ * <p>
+ * Every file in the source directory is written to the same path in the
+ * target directory (processed, if needed) and all of them are described
+ * in a {@value Manifest#FILE_NAME} file, which {@link ServeResource} can
+ * then use (with its {@code manifest} configuration) to serve the target
+ * directory without compiling anything.
+ * <p>
+ * From the command line:
+ * <pre>
+ * java org.usrz.libs.webtools.resources.AssetsBuilder [--minify] [--charset name] source target
+ * </pre>
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public final class AssetsBuilder {
+
+    private final Log log = new Log();
+
+    private final ResourceManager manager;
+    private final AssetCompiler compiler;
+    private final Charset charset;
+    private final File target;
+
+    /**
+     * Create a new {@link AssetsBuilder} reading from the specified source
+     * directory and writing to the specified target directory.
+     */
+    public AssetsBuilder(File source, File target, Charset charset, boolean minify) {
+        this.charset = notNull(charset, "Null charset");
+        this.target = notNull(target, "Null target directory").getAbsoluteFile();
+        manager = new ResourceManager(source, charset, ChangeDetection.NEVER, ChangeDetection.DEFAULT_INTERVAL);
+        compiler = new AssetCompiler(charset, minify);
+    }
+
+    /**
+     * Build all assets, returning the number of files written (excluding the
+     * {@value Manifest#FILE_NAME} file).
+     */
+    public int build()
+    throws IOException {
+        final long started = System.nanoTime();
+        final Path root = manager.getRootPath().toPath();
+        final Path output = target.toPath();
+        if ((! target.isDirectory()) && (! target.mkdirs())) throw new IOException("Unable to create directory " + target);
+
+        /* All our files, except the ones (possibly) in our target */
+        final List<Path> paths;
+        try (Stream<Path> stream = Files.walk(root)) {
+            paths = stream.filter(Files::isRegularFile)
+                          .filter((path) -> ! path.toAbsolutePath().startsWith(output))
+                          .sorted()
+                          .collect(Collectors.toList());
+        }
+
+        final Manifest manifest = new Manifest();
+        for (Path path: paths) {
+            final Resource resource = manager.getResource(path.toFile());
+            if (resource == null) continue;
+            if (Manifest.FILE_NAME.equals(resource.getPath()))
+                throw new IOException("Source \"" + root + "\" contains a " + Manifest.FILE_NAME + " file");
+            manifest.put(build(resource));
+        }
+
+        manifest.write(new File(target, Manifest.FILE_NAME));
+
+        log.info("Built %d assets from \"%s\" to \"%s\" in %d ms", paths.size(), root, target,
+                 (System.nanoTime() - started) / 1000000);
+        return paths.size();
+    }
+
+    /* ====================================================================== */
+
+    private Manifest.Asset build(Resource resource)
+    throws IOException {
+        final String path = resource.getPath();
+        final String fileName = resource.getFile().getName();
+        final File file = new File(target, path);
+        final File parent = file.getParentFile();
+        if ((! parent.isDirectory()) && (! parent.mkdirs())) throw new IOException("Unable to create directory " + parent);
+
+        /* Static files are simply copied */
+        if (! compiler.processable(fileName)) {
+            log.debug("Copying \"%s\"", path);
+            Files.copy(resource.getFile().toPath(), file.toPath(), REPLACE_EXISTING);
+            return new Manifest.Asset(path, compiler.type(fileName).toString(), false,
+                                      file.length(), EntityTags.hash(resource), Collections.emptyList());
+        }
+
+        /* Everything else is processed, remembering dependencies */
+        log.debug("Processing \"%s\"", path);
+        final Resources resources = new Resources(resource);
+        final byte[] contents = compiler.compile(resources).getBytes(charset);
+        Files.write(file.toPath(), contents);
+
+        final List<String> dependencies = resources.subResources().stream()
+                                                   .map(Resource::getPath)
+                                                   .sorted()
+                                                   .collect(Collectors.toList());
+        return new Manifest.Asset(path, compiler.type(fileName).toString(), true,
+                                  contents.length, EntityTags.hash(contents), dependencies);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Build assets from the command line.
+     */
+    public static void main(String[] args)
+    throws Exception {
+        Logging.init();
+
+        Charset charset = UTF8;
+        boolean minify = false;
+        int index = 0;
+
+        /* Parse our options */
+        for (; (index < args.length) && args[index].startsWith("--"); index ++) {
+            if ("--minify".equals(args[index])) {
+                minify = true;
+            } else if ("--charset".equals(args[index]) && (index + 1 < args.length)) {
+                charset = Charset.forName(args[++ index]);
+            } else {
+                usage();
+                return;
+            }
+        }
+
+        /* Then source and target */
+        if (args.length - index != 2) {
+            usage();
+            return;
+        }
+
+        new AssetsBuilder(new File(args[index]), new File(args[index + 1]), charset, minify).build();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: " + AssetsBuilder.class.getName() + " [--minify] [--charset name] source target");
+        System.exit(1);
+    }
+}
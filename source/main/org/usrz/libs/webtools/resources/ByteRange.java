@@ -0,0 +1,112 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single, satisfiable, byte range as specified by an <em>HTTP</em>
+ * {@code Range} header.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class ByteRange {
+
+    /* Anything more than this and we simply send the whole thing */
+    private static final int MAX_RANGES = 32;
+    private static final String BYTES = "bytes=";
+
+    /** The first byte position (inclusive) */
+    final long first;
+    /** The last byte position (inclusive) */
+    final long last;
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Return the number of bytes in this range.
+     */
+    long length() {
+        return last - first + 1;
+    }
+
+    /**
+     * Return the value for the {@code Content-Range} header.
+     */
+    String contentRange(long total) {
+        return "bytes " + first + "-" + last + "/" + total;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + '[' + first + '-' + last + ']';
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Parse the value of a {@code Range} header for an entity of the
+     * specified length.
+     *
+     * @return A {@link List} of satisfiable {@link ByteRange}s, an
+     *         <em>empty</em> {@link List} if none of the ranges could be
+     *         satisfied, or {@code null} if the header should be ignored
+     *         (and the whole entity sent).
+     */
+    static List<ByteRange> parse(String header, long length) {
+        if ((header == null) || (! header.regionMatches(true, 0, BYTES, 0, BYTES.length()))) return null;
+
+        final String[] specs = header.substring(BYTES.length()).split(",");
+        if (specs.length > MAX_RANGES) return null;
+
+        final List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec: specs) try {
+            spec = spec.trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0) return null;
+
+            final String start = spec.substring(0, dash).trim();
+            final String end = spec.substring(dash + 1).trim();
+
+            if (start.isEmpty()) {
+                /* Suffix range: "-500" are the last 500 bytes */
+                if (end.isEmpty()) return null;
+                final long suffix = Long.parseLong(end);
+                if (suffix < 0) return null;
+                if ((suffix == 0) || (length == 0)) continue;
+                ranges.add(new ByteRange(Math.max(0, length - suffix), length - 1));
+
+            } else {
+                /* Normal range: "500-" or "500-999" */
+                final long first = Long.parseLong(start);
+                final long last = end.isEmpty() ? length - 1 : Long.parseLong(end);
+                if ((first < 0) || (last < first)) return null;
+                if (first >= length) continue;
+                ranges.add(new ByteRange(first, Math.min(last, length - 1)));
+            }
+
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+
+        return Collections.unmodifiableList(ranges);
+    }
+}
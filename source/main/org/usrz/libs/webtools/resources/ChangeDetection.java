@@ -0,0 +1,54 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.time.Duration;
+
+import org.usrz.libs.configurations.Configurations;
+
+/**
+ * The different strategies a {@link ResourceManager} can use to determine
+ * whether a {@link Resource} has changed on disk.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public enum ChangeDetection {
+
+    /** Check the last modified date of a file every time (the default). */
+    STAT,
+    /** Check the last modified date of a file at most once per interval. */
+    POLL,
+    /** Use a file system watcher, falling back to {@link #POLL}. */
+    WATCH,
+    /** Never check for changes (production mode). */
+    NEVER;
+
+    /** The default polling interval (2 seconds). */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(2);
+
+    /**
+     * Parse the {@code change_detection} key from some {@link Configurations}
+     * (case insensitive, defaulting to {@link #STAT}).
+     */
+    public static ChangeDetection from(Configurations configurations) {
+        final String detection = configurations.get("change_detection", STAT.name());
+        try {
+            return valueOf(detection.toUpperCase());
+        } catch (IllegalArgumentException exception) {
+            throw new ResourceException("Invalid change detection \"" + detection + "\"", exception);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * The implementation of all {@link ChangeDetection} strategies.
+ * <p>
+ * Each detector associates a <em>version</em> to every file: a
+ * {@link Resource} remembers the version of its file when it is read, and
+ * it is considered changed whenever the version differs.
+ * <p>
+ * Watching detectors for the same root directory share a single
+ * {@link WatchService} (and thread), closed when the last of them is.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+abstract class ChangeDetector implements Closeable {
+
+    protected final Log log = new Log();
+    private final List<Consumer<File>> listeners = new CopyOnWriteArrayList<>();
+
+    private ChangeDetector() {
+        /* Only our own implementations */
+    }
+
+    /**
+     * Create a new {@link ChangeDetector} for the specified root directory.
+     */
+    static ChangeDetector create(ChangeDetection detection, File root, Duration interval) {
+        switch (notNull(detection, "Null change detection")) {
+            case STAT: return new Stat();
+            case POLL: return new Polling(interval);
+            case NEVER: return new Never();
+            case WATCH: try {
+                return new Watching(root);
+            } catch (IOException | UnsupportedOperationException exception) {
+                final ChangeDetector fallback = new Polling(interval);
+                fallback.log.warn(exception, "Unable to watch \"%s\", falling back to polling every %s", root, interval);
+                return fallback;
+            }
+            default: throw new IllegalArgumentException("Unsupported change detection " + detection);
+        }
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the current version of the specified file.
+     */
+    abstract long version(File file);
+
+    /**
+     * Check whether this detector notifies its listeners of <em>all</em>
+     * changes, including creation of new files and directories.
+     */
+    boolean isWatching() {
+        return false;
+    }
+
+    /**
+     * Add a listener notified (possibly asynchronously) with the files this
+     * detector sees changing. A change to the root directory means that
+     * <em>any</em> file might have changed.
+     * <p>
+     * Only polling and watching detectors notify their listeners.
+     */
+    void addListener(Consumer<File> listener) {
+        listeners.add(notNull(listener, "Null listener"));
+    }
+
+    protected void fireChanged(File file) {
+        for (Consumer<File> listener: listeners) try {
+            listener.accept(file);
+        } catch (Exception exception) {
+            log.warn(exception, "Listener %s failed for changed file \"%s\"", listener, file);
+        }
+    }
+
+    @Override
+    public void close() {
+        /* Nothing to do by default */
+    }
+
+    /* ====================================================================== */
+
+    /* Check the last modified date of a file every time */
+    private static final class Stat extends ChangeDetector {
+
+        @Override
+        long version(File file) {
+            return file.lastModified();
+        }
+    }
+
+    /* Never check, files never change */
+    private static final class Never extends ChangeDetector {
+
+        @Override
+        long version(File file) {
+            return 0;
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* Check the last modified date of a file at most once per interval */
+    private static final class Polling extends ChangeDetector {
+
+        private final ConcurrentMap<File, Check> checks = new ConcurrentHashMap<>();
+        private final long interval;
+
+        private Polling(Duration interval) {
+            this.interval = notNull(interval, "Null interval").toNanos();
+        }
+
+        @Override
+        long version(File file) {
+            final long now = System.nanoTime();
+            final Check check = checks.get(file);
+            if ((check != null) && ((now - check.checkedAt) < interval)) return check.lastModified;
+
+            /* Time to check again */
+            final long lastModified = file.lastModified();
+            checks.put(file, new Check(now, lastModified));
+            if ((check != null) && (check.lastModified != lastModified)) fireChanged(file);
+            return lastModified;
+        }
+
+        private static final class Check {
+
+            private final long checkedAt;
+            private final long lastModified;
+
+            private Check(long checkedAt, long lastModified) {
+                this.checkedAt = checkedAt;
+                this.lastModified = lastModified;
+            }
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* Watch (sharing one watcher per root) until closed */
+    private static final class Watching extends ChangeDetector {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Watcher watcher;
+
+        private Watching(File root)
+        throws IOException {
+            watcher = Watcher.acquire(root, this);
+        }
+
+        @Override
+        boolean isWatching() {
+            return true;
+        }
+
+        @Override
+        long version(File file) {
+            return watcher.version(file);
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) watcher.release(this);
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* A WatchService (and its thread), bumping the version of a file at every event */
+    private static final class Watcher implements Runnable {
+
+        /* All our watchers, by root, shared by the detectors using them */
+        private static final Map<File, Watcher> WATCHERS = new HashMap<>();
+
+        private final Log log = new Log();
+        private final List<Watching> detectors = new CopyOnWriteArrayList<>();
+        /* Versions only of files asked about, each a unique sequence number */
+        private final ConcurrentMap<File, Long> versions = new ConcurrentHashMap<>();
+        private final AtomicLong sequence = new AtomicLong();
+        private final WatchService service;
+        private final Thread thread;
+        private final File root;
+
+        private Watcher(File root)
+        throws IOException {
+            this.root = notNull(root, "Null root");
+            service = root.toPath().getFileSystem().newWatchService();
+            try {
+                register(root.toPath());
+            } catch (IOException | RuntimeException exception) {
+                service.close();
+                throw exception;
+            }
+
+            thread = new Thread(this, "ResourceWatcher[" + root + "]");
+            thread.setDaemon(true);
+            thread.start();
+            log.debug("Watching for changes in \"%s\"", root);
+        }
+
+        /* Get (or create) the watcher for a root, used by a detector */
+        private static Watcher acquire(File root, Watching detector)
+        throws IOException {
+            synchronized (WATCHERS) {
+                Watcher watcher = WATCHERS.get(root);
+                if (watcher == null) WATCHERS.put(root, watcher = new Watcher(root));
+                watcher.detectors.add(detector);
+                return watcher;
+            }
+        }
+
+        /* Stop using this watcher, closing it when no detector uses it */
+        private void release(Watching detector) {
+            synchronized (WATCHERS) {
+                detectors.remove(detector);
+                if (! detectors.isEmpty()) return;
+                WATCHERS.remove(root, this);
+            }
+
+            try {
+                service.close();
+            } catch (IOException exception) {
+                log.warn(exception, "Error closing watcher for \"%s\"", root);
+            }
+        }
+
+        private long version(File file) {
+            return versions.computeIfAbsent(file, (key) -> sequence.incrementAndGet());
+        }
+
+        private void fireChanged(File file) {
+            for (Watching detector: detectors) detector.fireChanged(file);
+        }
+
+        @Override
+        public void run() {
+            while (true) try {
+                final WatchKey key = service.take();
+                final Path directory = (Path) key.watchable();
+
+                for (WatchEvent<?> event: key.pollEvents()) {
+
+                    /* Overflow? Everything might have changed: new versions for all */
+                    if (event.kind() == OVERFLOW) {
+                        log.debug("Events overflow watching \"%s\"", root);
+                        versions.clear();
+                        fireChanged(root);
+                        continue;
+                    }
+
+                    /* New directories need to be watched, too */
+                    final Path path = directory.resolve((Path) event.context());
+                    if ((event.kind() == ENTRY_CREATE) && Files.isDirectory(path, NOFOLLOW_LINKS)) try {
+                        register(path);
+                    } catch (IOException exception) {
+                        log.warn(exception, "Unable to watch new directory \"%s\"", path);
+                    }
+
+                    /* Bump the version of a file anyone asked for, forget deleted ones */
+                    final File file = path.toFile();
+                    if (event.kind() == ENTRY_DELETE) versions.remove(file);
+                    else versions.computeIfPresent(file, (changed, version) -> sequence.incrementAndGet());
+                    fireChanged(file);
+                }
+
+                /* Reset the key, if it's invalid the directory is gone */
+                if (! key.reset()) log.debug("Stopped watching \"%s\"", directory);
+
+            } catch (ClosedWatchServiceException | InterruptedException exception) {
+                log.debug("Stopped watching for changes in \"%s\"", root);
+                return;
+            } catch (Exception exception) {
+                log.error(exception, "Exception watching for changes in \"%s\"", root);
+            }
+        }
+
+        private void register(Path start)
+        throws IOException {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes)
+                throws IOException {
+                    directory.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+}
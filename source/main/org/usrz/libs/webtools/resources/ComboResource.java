@@ -0,0 +1,297 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.GET;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriInfo;
+
+import org.usrz.libs.configurations.Configurations;
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.utils.concurrent.KeyedExecutor;
+import org.usrz.libs.utils.concurrent.NotifyingFuture;
+
+/**
+ * A <em>JAX-RS</em> resource serving <em>bundles</em> of JavaScript or CSS
+ * resources, concatenated (and processed) as a single response.
+ * <p>
+ * Bundles can be requested either by listing their members in the query
+ * string, like {@code /combo?app.js&vendor/jquery.js}, or by name (for
+ * example {@code /combo/app}) when defined in the configurations.
+ * <p>
+ * All members of a bundle must be either <em>JavaScript</em> files, which
+ * are concatenated and (optionally) <em>minified</em> together, or
+ * <em>CSS</em> and <em>{@linkplain org.usrz.libs.webtools.lesscss.LessCSS
+ * LessCSS}</em> files, which are processed individually (as each one's
+ * {@code @import}s are relative to it) and then concatenated.
+ * <p>
+ * Bundles are compiled, cached (and precompressed) with the engines, cache
+ * and executor of the {@link ServeResource} serving the same resources, and
+ * rebuilt whenever any of their members (or any of the files those import)
+ * changes.
+ * <p>
+ * Most configurations are the {@link ServeResource}'s, with the addition of:
+ * <dl>
+ *   <dt>{@code bundles.<em>name</em>}</dt>
+ *   <dd><em>(Optional)</em> A comma-separated list of the paths of the members
+ *       of the bundle served as {@code /combo/<em>name</em>}.</dd>
+ *   <dt>{@code max_members}</dt>
+ *   <dd><em>(Default: {@code 50})</em> The maximum number of members of bundles
+ *       requested in the query string.</dd>
+ * </dl>
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+@Path("combo")
+@Singleton
+public class ComboResource implements Closeable {
+
+    private final Log log = new Log();
+
+    private final Map<String, List<String>> bundles = new HashMap<>();
+    private final ServeResource resources;
+    private final ResourceCache cache;
+
+    private final KeyedExecutor<Object> executor;
+    private final ResourceManager manager;
+    private final AssetCompiler compiler;
+    private final EntryResponder responder;
+    private final List<ContentEncoder> encoders;
+    private final Charset charset;
+    private final int maxMembers;
+
+    /**
+     * Create a new {@link ComboResource} instance bundling the resources of
+     * the specified {@link ServeResource}, with the specified
+     * {@link Configurations}.
+     */
+    @Inject
+    public ComboResource(ServeResource resources, Configurations configurations) {
+        this.resources = notNull(resources, "Null resources");
+        manager = resources.getResourceManager();
+        compiler = resources.getCompiler();
+        responder = resources.getResponder();
+        encoders = resources.getEncoders();
+        executor = resources.getExecutor();
+        cache = resources.getCache();
+        charset = manager.getDefaultCharset();
+        maxMembers = configurations.get("max_members", 50);
+
+        /* Named bundles, as comma-separated lists of paths */
+        final Configurations named = configurations.strip("bundles");
+        for (String name: named.keySet()) {
+            final List<String> members = new ArrayList<>();
+            for (String member: named.get(name, "").split(",")) {
+                if (! member.trim().isEmpty()) members.add(member.trim());
+            }
+            if (members.isEmpty()) throw new IllegalArgumentException("No members in bundle \"" + name + "\"");
+            bundles.put(name, Collections.unmodifiableList(members));
+            log.debug("Configured bundle \"%s\" with members %s", name, members);
+        }
+    }
+
+    /**
+     * Serve the bundle whose members are listed in the query string.
+     */
+    @GET
+    public void combo(@Suspended AsyncResponse asyncResponse,
+                      @Context Request request,
+                      @Context HttpHeaders headers,
+                      @Context UriInfo uriInfo) {
+        final String query = uriInfo.getRequestUri().getRawQuery();
+        if (query == null) {
+            asyncResponse.resume(Response.status(Status.NOT_FOUND).build());
+            return;
+        }
+
+        /* Every parameter (without its value) is a path */
+        final List<String> members = new ArrayList<>();
+        for (String parameter: query.split("&")) try {
+            final int equals = parameter.indexOf('=');
+            final String member = URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8");
+            if (! member.isEmpty()) members.add(member);
+        } catch (IllegalArgumentException | UnsupportedEncodingException exception) {
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).build());
+            return;
+        }
+
+        if (members.isEmpty()) {
+            asyncResponse.resume(Response.status(Status.NOT_FOUND).build());
+            return;
+        }
+
+        if (members.size() > maxMembers) {
+            log.debug("Refusing bundle of %d members (maximum %d)", members.size(), maxMembers);
+            asyncResponse.resume(Response.status(Status.BAD_REQUEST).build());
+            return;
+        }
+
+        serve(asyncResponse, request, headers, "?" + query, members);
+    }
+
+    /**
+     * Serve the bundle with the specified name, as configured.
+     */
+    @GET
+    @Path("{bundle}")
+    public void bundle(@Suspended AsyncResponse asyncResponse,
+                       @Context Request request,
+                       @Context HttpHeaders headers,
+                       @PathParam("bundle") String name) {
+        final List<String> members = bundles.get(name);
+        if (members == null) {
+            asyncResponse.resume(Response.status(Status.NOT_FOUND).build());
+            return;
+        }
+
+        serve(asyncResponse, request, headers, name, members);
+    }
+
+    /**
+     * Return the {@link ResourceCache} used by this instance.
+     */
+    public ResourceCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Close the {@link ServeResource} whose executor, engines and resources
+     * are shared by this instance.
+     *
+     * @see ServeResource#close()
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        resources.close();
+    }
+
+    /* ====================================================================== */
+
+    private void serve(AsyncResponse asyncResponse, Request request, HttpHeaders headers, String name, List<String> paths) {
+        final MultivaluedMap<String, String> requestHeaders = headers.getRequestHeaders();
+
+        /* Keyed by paths, members are only resolved (on the executor) when building */
+        final List<String> key = Collections.unmodifiableList(new ArrayList<>(paths));
+        final Entry cached = cache.get(key);
+        if (cached != null) {
+            asyncResponse.resume(responder.respond(request, requestHeaders, cached, false));
+            return;
+        }
+
+        final NotifyingFuture<Entry> future;
+        try {
+            future = executor.call(key, () -> produce(name, key));
+        } catch (RejectedExecutionException exception) {
+            log.warn("\"%s\": Canceling AsyncResponse %s", name, asyncResponse);
+            asyncResponse.cancel();
+            return;
+        } catch (Throwable exception) {
+            log.warn("\"%s\": Failing AsyncResponse %s", name, asyncResponse);
+            asyncResponse.resume(exception);
+            return;
+        }
+
+        /* Never share responses (see ServeResource), build one per request */
+        future.withConsumer((entryFuture) -> {
+            try {
+                asyncResponse.resume(responder.respond(request, requestHeaders, entryFuture.get(), false));
+            } catch (ExecutionException exception) {
+                final Throwable cause = exception.getCause();
+                if (cause instanceof WebApplicationException) {
+                    asyncResponse.resume(((WebApplicationException) cause).getResponse());
+                } else {
+                    log.trace("\"%s\": Exception processing AsyncResponse %s", name, asyncResponse);
+                    asyncResponse.resume(cause);
+                }
+            } catch (Exception exception) {
+                log.trace("\"%s\": Exception processing AsyncResponse %s", name, asyncResponse);
+                asyncResponse.resume(exception);
+            }
+        });
+    }
+
+    /* Deferred process to build (unless already cached) a bundle */
+    private Entry produce(String name, List<String> paths)
+    throws IOException {
+        final Entry cached = cache.get(paths);
+        if (cached != null) return cached;
+
+        /* Resolve all our members, any missing one is a 404 */
+        final List<Resource> members = new ArrayList<>(paths.size());
+        for (String path: paths) {
+            final Resource resource = resolve(path);
+            if (resource == null) {
+                log.debug("Member \"%s\" of bundle \"%s\" not found", path, name);
+                throw new NotFoundException();
+            }
+            members.add(resource);
+        }
+
+        /* Don't mix scripts and styles (or anything else) */
+        final boolean scripts = members.get(0).getFile().getName().endsWith(".js");
+        for (Resource member: members) {
+            final String fileName = member.getFile().getName();
+            if (scripts ? fileName.endsWith(".js") : fileName.endsWith(".css") || fileName.endsWith(".less")) continue;
+            log.debug("Member \"%s\" can not be bundled in \"%s\"", member.getPath(), name);
+            throw new BadRequestException();
+        }
+
+        log.debug("Building bundle \"%s\" of %d resources", name, members.size());
+        final Resources resources = new Resources(members.get(0));
+        final String contents = compiler.bundle(members, resources);
+        final Entry entry = new Entry(resources, scripts ? compiler.scriptType() : compiler.styleType(), contents.getBytes(charset), encoders);
+        cache.put(paths, entry);
+        return entry;
+    }
+
+    /* Resolve a path into a resource, potentially a ".less" file for CSS */
+    private Resource resolve(String path) {
+        final Resource resource = manager.getResource(path);
+        if ((resource != null) || (! path.endsWith(".css"))) return resource;
+        return manager.getResource(path.substring(0, path.length() - 4) + ".less");
+    }
+}
@@ -0,0 +1,52 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.io.IOException;
+
+/**
+ * An interface describing where {@link ServeResource} persists compiled
+ * resources, possibly shared by several nodes (so that the first one to
+ * compile a resource publishes it, and all others simply read it).
+ * <p>
+ * Records are opaque, and keyed by (hexadecimal) content hashes: the same
+ * key might be published more than once (and the last one wins), but
+ * readers must only ever see complete records.
+ * <p>
+ * Implementations other than {@link DirectoryAssetStore} can be configured
+ * by class name (see {@link ServeResource}), and must have a public
+ * constructor taking a single {@link org.usrz.libs.configurations.Configurations}
+ * argument.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public interface CompiledAssetStore {
+
+    /**
+     * Read the record published with the specified key, or return
+     * {@code null} if no such record exists.
+     */
+    public byte[] read(String key)
+    throws IOException;
+
+    /**
+     * Publish a record with the specified key, replacing any existing one
+     * atomically.
+     */
+    public void publish(String key, byte[] record)
+    throws IOException;
+
+}
@@ -0,0 +1,231 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Charsets.UTF8;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.ws.rs.core.MediaType;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * A persistent cache of compiled (processed) resources, surviving restarts
+ * of the {@link ServeResource} using it, and possibly shared with others
+ * through the {@link CompiledAssetStore} it uses.
+ * <p>
+ * Compiled outputs are keyed by a hash of the path and contents of their
+ * main resource, and of the compilers and options used: the contents of
+ * all other resources they depend on (like <em>LessCSS</em> imports) are
+ * recorded alongside (with their sizes and last modified times), and
+ * verified when loading: only those whose size or last modified time
+ * differ are read and hashed again.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public final class CompiledCache {
+
+    /* Bump whenever the record format (or what we compile) changes */
+    private static final int FORMAT = 2;
+
+    private final Log log = new Log();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+
+    private final CompiledAssetStore store;
+    private final String options;
+
+    CompiledCache(CompiledAssetStore store, String options) {
+        this.store = notNull(store, "Null store");
+        this.options = notNull(options, "Null options");
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Load the compiled {@link Entry} for the specified {@link Resource},
+     * or return {@code null} if it was never stored, or if any of the
+     * resources it depends on changed since.
+     */
+    Entry load(Resource resource, List<ContentEncoder> encoders) {
+        final String key = key(resource);
+
+        final byte[] record;
+        try {
+            record = store.read(key);
+        } catch (IOException exception) {
+            log.warn(exception, "Unable to read compiled resource \"%s\" from %s", resource.getPath(), store);
+            misses.increment();
+            return null;
+        }
+
+        if (record == null) {
+            misses.increment();
+            return null;
+        }
+
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(record))) {
+            if ((input.readInt() != FORMAT) || (! resource.getPath().equals(input.readUTF()))) {
+                log.debug("Ignoring mismatched compiled resource \"%s\" in %s", resource.getPath(), store);
+                misses.increment();
+                return null;
+            }
+
+            final MediaType type = MediaType.valueOf(input.readUTF());
+
+            /* Dependencies must be exactly what they were (hash only if touched) */
+            final Resources resources = new Resources(resource);
+            for (int count = input.readInt(); count > 0; count --) {
+                final String path = input.readUTF();
+                final long size = input.readLong();
+                final long lastModified = input.readLong();
+                final String hash = input.readUTF();
+                final Resource dependency = resource.getResourceManager().getResource(path);
+                if ((dependency == null) || (! unchanged(dependency, size, lastModified, hash))) {
+                    log.debug("Dependency \"%s\" of compiled resource \"%s\" changed", path, resource.getPath());
+                    misses.increment();
+                    return null;
+                }
+                resources.with(dependency);
+            }
+
+            final byte[] contents = new byte[input.readInt()];
+            input.readFully(contents);
+
+            final int length = input.readInt();
+            final byte[] sourceMap = length < 0 ? null : new byte[length];
+            if (sourceMap != null) input.readFully(sourceMap);
+
+            log.debug("Loaded compiled resource \"%s\" from %s", resource.getPath(), store);
+            hits.increment();
+            return new Entry(resources, type, contents, sourceMap, encoders);
+
+        } catch (IOException | IllegalArgumentException | ResourceException exception) {
+            log.warn(exception, "Ignoring corrupted compiled resource \"%s\" in %s", resource.getPath(), store);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Store the specified (processed) {@link Entry}, unless any of its
+     * resources changed after it was compiled.
+     */
+    void store(Entry entry) {
+        if (! entry.isProcessed()) throw new IllegalArgumentException("Entry for \"" + entry.resource.getPath() + "\" not processed");
+
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(FORMAT);
+            output.writeUTF(entry.resource.getPath());
+            output.writeUTF(entry.type.toString());
+
+            /* Hash dependencies (with new instances, not to touch the entry's) */
+            final ResourceManager manager = entry.resource.getResourceManager();
+            output.writeInt(entry.resources.subResources().size());
+            for (Resource dependency: entry.resources.subResources()) {
+                final Resource current = manager.getResource(dependency.getFile());
+                final BasicFileAttributes attributes = current.attributes();
+                output.writeUTF(dependency.getPath());
+                output.writeLong(attributes.size());
+                output.writeLong(attributes.lastModifiedTime().toMillis());
+                output.writeUTF(EntityTags.hash(current));
+            }
+
+            output.writeInt(entry.identity.contents.length);
+            output.write(entry.identity.contents);
+            if (entry.sourceMap == null) {
+                output.writeInt(-1);
+            } else {
+                output.writeInt(entry.sourceMap.identity.contents.length);
+                output.write(entry.sourceMap.identity.contents);
+            }
+            output.flush();
+
+            /* Anything changed while we were compiling or hashing? */
+            final String key = key(manager.getResource(entry.resource.getFile()));
+            if (! entry.isValid()) {
+                log.debug("Not storing compiled resource \"%s\", it changed", entry.resource.getPath());
+                return;
+            }
+
+            store.publish(key, bytes.toByteArray());
+            stores.increment();
+            log.debug("Stored compiled resource \"%s\" as %s", entry.resource.getPath(), key);
+
+        } catch (IOException | RuntimeException exception) {
+            log.warn(exception, "Unable to store compiled resource \"%s\"", entry.resource.getPath());
+        }
+    }
+
+    /**
+     * Return the number of compiled resources loaded from the store.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of compiled resources not found (or no longer
+     * valid) in the store.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the number of compiled resources written to the store.
+     */
+    public long getStoreCount() {
+        return stores.sum();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[store=" + store
+                                         + ",hits=" + getHitCount()
+                                         + ",misses=" + getMissCount()
+                                         + ",stores=" + getStoreCount()
+                                         + "]";
+    }
+
+    /* ====================================================================== */
+
+    /* Same size and last modified time, or (if touched) the same contents */
+    private static boolean unchanged(Resource dependency, long size, long lastModified, String hash) {
+        final BasicFileAttributes attributes = dependency.attributes();
+        if ((attributes.size() == size) && (attributes.lastModifiedTime().toMillis() == lastModified)) return true;
+        return hash.equals(EntityTags.hash(dependency));
+    }
+
+    /* Our key: options, path and contents of the main resource */
+    private String key(Resource resource) {
+        final String prefix = FORMAT + "\n" + options + "\n" + resource.getPath() + "\n";
+        return EntityTags.hash((prefix + EntityTags.hash(resource)).getBytes(UTF8));
+    }
+}
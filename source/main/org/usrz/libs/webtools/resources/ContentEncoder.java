@@ -0,0 +1,46 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.io.IOException;
+
+/**
+ * An interface describing an <em>HTTP</em> content encoding (for example
+ * {@code gzip} or {@code br}) used by {@link ServeResource} to precompress
+ * its cached resources.
+ * <p>
+ * Implementations other than the ones in {@link ContentEncoders} (for
+ * example <em>Brotli</em>) can be made available by listing them in a
+ * {@code META-INF/services/org.usrz.libs.webtools.resources.ContentEncoder}
+ * file, as per {@link java.util.ServiceLoader}.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public interface ContentEncoder {
+
+    /**
+     * Return the token identifying this encoding in the {@code Accept-Encoding}
+     * and {@code Content-Encoding} headers.
+     */
+    public String getEncoding();
+
+    /**
+     * Encode the specified data, returning a new array.
+     */
+    public byte[] encode(byte[] data)
+    throws IOException;
+
+}
@@ -0,0 +1,125 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * The standard {@link ContentEncoder}s available to {@link ServeResource}.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public final class ContentEncoders {
+
+    private static final Log log = new Log();
+
+    /** The {@code gzip} content encoding. */
+    public static final ContentEncoder GZIP = new StreamEncoder("gzip") {
+        @Override
+        protected OutputStream wrap(OutputStream output)
+        throws IOException {
+            return new GZIPOutputStream(output) {{
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }};
+        }
+    };
+
+    /** The {@code deflate} (<em>zlib</em> wrapped) content encoding. */
+    public static final ContentEncoder DEFLATE = new StreamEncoder("deflate") {
+        @Override
+        protected OutputStream wrap(OutputStream output) {
+            return new DeflaterOutputStream(output, new Deflater(Deflater.BEST_COMPRESSION)) {
+                @Override
+                public void close()
+                throws IOException {
+                    /* Our own deflater, we need to release it ourselves */
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+    };
+
+    private ContentEncoders() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return all the {@link ContentEncoder}s available, in order of
+     * preference: first all the ones discovered via {@link ServiceLoader}
+     * (e.g. <em>Brotli</em>), then {@link #GZIP} and {@link #DEFLATE}.
+     */
+    public static List<ContentEncoder> available(ClassLoader classLoader) {
+        final List<ContentEncoder> encoders = new ArrayList<>();
+        for (ContentEncoder encoder: ServiceLoader.load(ContentEncoder.class, classLoader)) {
+            log.debug("Discovered \"%s\" content encoder %s", encoder.getEncoding(), encoder.getClass().getName());
+            encoders.add(encoder);
+        }
+        encoders.add(GZIP);
+        encoders.add(DEFLATE);
+        return Collections.unmodifiableList(encoders);
+    }
+
+    /* ====================================================================== */
+
+    private static abstract class StreamEncoder implements ContentEncoder {
+
+        private final String encoding;
+
+        private StreamEncoder(String encoding) {
+            this.encoding = encoding;
+        }
+
+        protected abstract OutputStream wrap(OutputStream output)
+        throws IOException;
+
+        @Override
+        public final String getEncoding() {
+            return encoding;
+        }
+
+        @Override
+        public final byte[] encode(byte[] data)
+        throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2);
+            final OutputStream output = wrap(bytes);
+            output.write(data);
+            output.close();
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public String toString() {
+            return this.getClass().getName() + '[' + encoding + ']';
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import org.usrz.libs.configurations.Configurations;
+
+/**
+ * A {@link CompiledAssetStore} keeping records as files in a directory,
+ * either local or shared by several nodes (for example over <em>NFS</em>).
+ * <p>
+ * Records are written to a temporary file in their final directory, and
+ * then atomically renamed in place: readers never lock, and never see
+ * partially written records.
+ * <p>
+ * When configured by class name, the directory is read from the
+ * {@code directory} configuration.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public final class DirectoryAssetStore implements CompiledAssetStore {
+
+    private final Path directory;
+
+    /**
+     * Create a new {@link DirectoryAssetStore} using the {@code directory}
+     * in the specified {@link Configurations}.
+     */
+    public DirectoryAssetStore(Configurations configurations) {
+        this(configurations.requireFile("directory"));
+    }
+
+    /**
+     * Create a new {@link DirectoryAssetStore} using the specified directory
+     * (creating it if it doesn't exist).
+     */
+    public DirectoryAssetStore(File directory) {
+        this.directory = notNull(directory, "Null directory").getAbsoluteFile().toPath();
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException exception) {
+            throw new ResourceException("Unable to create directory \"" + directory + "\"", exception);
+        }
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public byte[] read(String key)
+    throws IOException {
+        try {
+            return Files.readAllBytes(file(key));
+        } catch (NoSuchFileException exception) {
+            return null;
+        }
+    }
+
+    @Override
+    public void publish(String key, byte[] record)
+    throws IOException {
+        final Path file = file(key);
+        Files.createDirectories(file.getParent());
+
+        /* Same directory, so that renaming is atomic (also on NFS) */
+        final Path temporary = Files.createTempFile(file.getParent(), key, ".tmp");
+        try {
+            Files.write(temporary, record);
+            Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[" + directory + "]";
+    }
+
+    /* ====================================================================== */
+
+    /* Fan out in subdirectories, like "ab/abcdef..." */
+    private Path file(String key) {
+        if ((key.length() < 3) || (! key.matches("[0-9a-f]+"))) throw new IllegalArgumentException("Invalid key \"" + key + "\"");
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+}
@@ -0,0 +1,112 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Charsets.UTF8;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A simple utility class computing content hashes for strong
+ * <em>HTTP</em> entity tags.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class EntityTags {
+
+    private static final String ALGORITHM = "SHA-1";
+    /* Files larger than this are tagged by their metadata, not contents */
+    private static final long HASH_THRESHOLD = 256 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private EntityTags() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the hexadecimal content hash of the specified bytes.
+     */
+    static String hash(byte[] data) {
+        final MessageDigest digest = digest();
+        digest.update(data);
+        return hex(digest.digest());
+    }
+
+    /**
+     * Return the hexadecimal content hash of the specified {@link Resource}.
+     * <p>
+     * The resource will be read fully, and its last access time (used by
+     * {@link Resource#hasChanged()}) will be updated.
+     */
+    static String hash(Resource resource) {
+        final MessageDigest digest = digest();
+        try {
+            final InputStream input = resource.stream();
+            final byte[] buffer = new byte[65536];
+            int read;
+            while ((read = input.read(buffer)) >= 0)
+                if (read > 0) digest.update(buffer, 0, read);
+            input.close();
+        } catch (IOException exception) {
+            throw new ResourceException("I/O error hashing \"" + resource.getFile() + "\"", exception);
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Return a strong validator for the specified {@link Resource}: the hash
+     * of its contents for small files, or of its size, last modified time
+     * and file key (its <em>inode</em>, where available) for larger ones.
+     * <p>
+     * Either way, its last access time (used by {@link Resource#hasChanged()})
+     * will be updated.
+     */
+    static String validator(Resource resource) {
+        final BasicFileAttributes attributes = resource.attributes();
+        if (attributes.size() <= HASH_THRESHOLD) return hash(resource);
+
+        final StringBuilder metadata = new StringBuilder()
+                .append(attributes.size()).append('/')
+                .append(attributes.lastModifiedTime()).append('/')
+                .append(attributes.fileKey());
+        return hash(metadata.toString().getBytes(UTF8));
+    }
+
+    /* ====================================================================== */
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Algorithm " + ALGORITHM + " not available", exception);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int x = 0, y = 0; x < bytes.length; x ++) {
+            chars[y ++] = HEX[(bytes[x] >> 4) & 0x0F];
+            chars[y ++] = HEX[bytes[x] & 0x0F];
+        }
+        return new String(chars);
+    }
+}
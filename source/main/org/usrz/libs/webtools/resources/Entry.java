@@ -0,0 +1,232 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * An entry in the {@link ServeResource} cache.
+ * <p>
+ * Entries either hold the processed (compiled, minified, normalized)
+ * contents of a resource, together with all its precompressed variants, or
+ * simply describe a static file served straight from disk.
+ * <p>
+ * Processed entries can also hold their <em>source map</em>, itself an
+ * entry (with its own precompressed variants) sharing the same resources.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class Entry {
+
+    private static final Log log = new Log();
+
+    /* Source maps are always JSON, always UTF-8 */
+    private static final MediaType SOURCE_MAP_TYPE = new MediaType("application", "json").withCharset("UTF-8");
+
+    final Resource resource;
+    final Resources resources;
+    final MediaType type;
+    final Date lastModified;
+    final String lastModifiedHeader;
+    final Encoded identity;
+    final List<Encoded> encoded;
+    final Entry sourceMap;
+
+    /* A processed resource, the hash is of the encoded contents */
+    Entry(Resources resources, MediaType type, byte[] contents, List<ContentEncoder> encoders) {
+        this(resources, type, contents, null, encoders);
+    }
+
+    /* A processed resource with its (optional) source map */
+    Entry(Resources resources, MediaType type, byte[] contents, byte[] sourceMap, List<ContentEncoder> encoders) {
+        this.resources = notNull(resources, "Null resources");
+        resource = resources.resource();
+        this.type = notNull(type, "Null type");
+
+        /* Last modified when the most recent of our resources was */
+        long modified = resource.lastModifiedAt();
+        for (Resource subResource: resources.subResources())
+            modified = Math.max(modified, subResource.lastModifiedAt());
+        lastModified = new Date(modified);
+        lastModifiedHeader = HttpDates.format(modified);
+
+        final String hash = EntityTags.hash(notNull(contents, "Null contents"));
+        identity = new Encoded(null, contents, new EntityTag(hash));
+
+        /* Precompress, but only remember what's actually smaller */
+        final List<Encoded> encoded = new ArrayList<>(encoders.size());
+        for (ContentEncoder encoder: encoders) try {
+            final String encoding = encoder.getEncoding();
+            final byte[] data = encoder.encode(contents);
+            if (data.length < contents.length) {
+                encoded.add(new Encoded(encoding, data, new EntityTag(hash + "-" + encoding)));
+            }
+        } catch (Exception exception) {
+            log.warn(exception, "Unable to encode \"%s\" using %s", resource.getFile(), encoder);
+        }
+        this.encoded = Collections.unmodifiableList(encoded);
+
+        /* Source maps are entries on their own, sharing our resources */
+        this.sourceMap = sourceMap == null ? null : new Entry(resources, SOURCE_MAP_TYPE, sourceMap, encoders);
+    }
+
+    /* A static file, served from disk, the hash is of the file (or its metadata) */
+    Entry(Resource resource, MediaType type) {
+        this.resource = notNull(resource, "Null resource");
+        resources = new Resources(resource);
+        this.type = notNull(type, "Null type");
+        lastModified = new Date(resource.lastModifiedAt());
+        lastModifiedHeader = HttpDates.format(lastModified.getTime());
+        identity = new Encoded(null, null, new EntityTag(EntityTags.validator(resource)));
+        encoded = Collections.emptyList();
+        sourceMap = null;
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Check whether this entry holds processed contents rather than simply
+     * describing a file.
+     */
+    boolean isProcessed() {
+        return identity.contents != null;
+    }
+
+    /**
+     * Check whether this entry is still valid, that is the resource it was
+     * created from (or any of the ones it depends on) has not changed.
+     */
+    boolean isValid() {
+        return ! resources.hasChanged();
+    }
+
+    /**
+     * Return the (approximate) number of bytes held by this entry.
+     */
+    long weight() {
+        long weight = identity.contents == null ? 0 : identity.contents.length;
+        for (Encoded variant: encoded) weight += variant.contents.length;
+        return sourceMap == null ? weight : weight + sourceMap.weight();
+    }
+
+    /**
+     * Select the best {@link Encoded} variant for the specified value of the
+     * {@code Accept-Encoding} header (which might be {@code null}).
+     */
+    Encoded select(String acceptEncoding) {
+        if (encoded.isEmpty() || (acceptEncoding == null)) return identity;
+
+        /* Our variants are in order of preference, highest quality wins */
+        Encoded selected = null;
+        float quality = 0;
+        for (Encoded variant: encoded) {
+            final float q = quality(acceptEncoding, variant.encoding);
+            if (q > quality) {
+                selected = variant;
+                quality = q;
+            }
+        }
+
+        /* Identity is always acceptable, unless explicitly refused */
+        if (selected == null) return identity;
+        return quality(acceptEncoding, "identity") > quality ? identity : selected;
+    }
+
+    /**
+     * Check the value of an {@code If-Range} header (which might be
+     * {@code null}) against this entry's strong validators.
+     */
+    boolean validates(String ifRange) {
+        if (ifRange == null) return true;
+        final String value = ifRange.trim();
+
+        /* Entity tags: weak ones never match, strong ones must be equal */
+        if (value.startsWith("W/")) return false;
+        if (value.startsWith("\"")) return value.equals('"' + identity.etag.getValue() + '"');
+
+        /* Dates: HTTP dates have a resolution of one second */
+        try {
+            final long date = ZonedDateTime.parse(value, RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            return date == (lastModified.getTime() / 1000) * 1000;
+        } catch (DateTimeParseException exception) {
+            return false;
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* Figure out the quality of an encoding in an "Accept-Encoding" header */
+    private static float quality(String acceptEncoding, String encoding) {
+        float wildcard = encoding.equals("identity") ? 0.001F : 0;
+        for (String token: acceptEncoding.split(",")) {
+            final int semicolon = token.indexOf(';');
+            final String name = (semicolon < 0 ? token : token.substring(0, semicolon)).trim();
+
+            /* Parse the "q" parameter (if any) */
+            float q = 1;
+            if (semicolon >= 0) {
+                final String parameter = token.substring(semicolon + 1).trim();
+                if (parameter.startsWith("q=")) try {
+                    q = Float.parseFloat(parameter.substring(2).trim());
+                } catch (NumberFormatException exception) {
+                    q = 0;
+                }
+            }
+
+            /* Exact match wins, wildcard is remembered */
+            if (name.equalsIgnoreCase(encoding)) return q;
+            if (name.equals("*")) wildcard = q;
+        }
+        return wildcard;
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * A (possibly encoded) variant of an {@link Entry}'s contents.
+     */
+    static final class Encoded {
+
+        /** The content encoding, or {@code null} for identity. */
+        final String encoding;
+        /** The contents, or {@code null} for static files. */
+        final byte[] contents;
+        /** The strong entity tag of this variant. */
+        final EntityTag etag;
+        /** The strong entity tag of this variant, as a header value. */
+        final String etagHeader;
+
+        private Encoded(String encoding, byte[] contents, EntityTag etag) {
+            this.encoding = encoding;
+            this.contents = contents;
+            this.etag = etag;
+            etagHeader = '"' + etag.getValue() + '"';
+        }
+    }
+}
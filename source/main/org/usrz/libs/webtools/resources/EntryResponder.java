@@ -0,0 +1,195 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static com.google.common.net.HttpHeaders.ACCEPT_RANGES;
+import static com.google.common.net.HttpHeaders.CONTENT_RANGE;
+import static com.google.common.net.HttpHeaders.IF_RANGE;
+import static com.google.common.net.HttpHeaders.RANGE;
+import static javax.ws.rs.core.HttpHeaders.ACCEPT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CACHE_CONTROL;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_ENCODING;
+import static javax.ws.rs.core.HttpHeaders.CONTENT_LENGTH;
+import static javax.ws.rs.core.HttpHeaders.ETAG;
+import static javax.ws.rs.core.HttpHeaders.EXPIRES;
+import static javax.ws.rs.core.HttpHeaders.LAST_MODIFIED;
+import static javax.ws.rs.core.HttpHeaders.VARY;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.time.Duration;
+import java.util.List;
+
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.webtools.resources.Entry.Encoded;
+
+/**
+ * Create {@link Response}s for cache {@link Entry entries}, shared by
+ * {@link ServeResource} and {@link ComboResource}.
+ * <p>
+ * This takes care of conditional requests, content encoding selection,
+ * byte ranges (for static files) and of all caching headers.
+ * <p>
+ * Header values are never formatted per request: validators are kept by
+ * each {@link Entry}, and {@code Expires} dates are formatted at most once
+ * per second.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class EntryResponder {
+
+    /* Fingerprinted resources never change, cache them for a year */
+    private static final Duration IMMUTABLE_DURATION = Duration.ofDays(365);
+    private static final String IMMUTABLE = "public, max-age=" + IMMUTABLE_DURATION.getSeconds() + ", immutable";
+
+    /* Where browsers look for source maps (when not in the contents) */
+    private static final String SOURCE_MAP = "SourceMap";
+
+    private final Log log = new Log();
+
+    private final HttpDates.Coarse immutableExpires = new HttpDates.Coarse(IMMUTABLE_DURATION);
+    private final HttpDates.Coarse expires;
+    private final String cacheControl;
+
+    EntryResponder(Duration cacheDuration) {
+        notNull(cacheDuration, "Null cache duration");
+        expires = new HttpDates.Coarse(cacheDuration);
+        cacheControl = Duration.ZERO.equals(cacheDuration) ?
+                           "no-cache, no-transform, max-age=0" :
+                           "no-transform, max-age=" + cacheDuration.getSeconds();
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Create a response for an entry (conditional, partial, whatever...),
+     * caching it forever if {@code immutable}.
+     */
+    Response respond(Request request, MultivaluedMap<String, String> headers, Entry cached, boolean immutable) {
+        return respond(request, headers, null, cached, immutable);
+    }
+
+    /**
+     * Create a response for an entry (conditional, partial, whatever...),
+     * caching it forever if {@code immutable}, and pointing to its source
+     * map (if any) relative to the specified request path.
+     */
+    Response respond(Request request, MultivaluedMap<String, String> headers, String path, Entry cached, boolean immutable) {
+        final String fileName = cached.resource.getFile().getName();
+
+        /* Conditional request? We might not need to send anything */
+        final Encoded encoded = cached.select(headers.getFirst(ACCEPT_ENCODING));
+        final ResponseBuilder conditional = request.evaluatePreconditions(cached.lastModified, encoded.etag);
+        if (conditional != null) {
+            log.trace("Resource \"%s\" not modified", fileName);
+            /* Validators might have been set already, we'll add our own */
+            conditional.header(ETAG, null).header(LAST_MODIFIED, null);
+            return headers(conditional, cached, encoded, immutable).build();
+        }
+
+        /* Prepare our basic response from either cache or file */
+        final ResponseBuilder response = Response.ok();
+        if (cached.isProcessed()) {
+
+            /* Response from cache */
+            log.trace("Serving cached resource \"%s\" (encoding %s)", fileName, encoded.encoding);
+            response.entity(encoded.contents).type(cached.type);
+
+        } else {
+
+            /* Range request? We might need to send only parts */
+            final Response partial = partial(headers, cached, immutable);
+            if (partial != null) {
+                log.trace("Serving partial file-based resource \"%s\"", fileName);
+                return partial;
+            }
+
+            /* Our file is served! */
+            log.trace("Serving file-based resource \"%s\"", fileName);
+            final FileRegion region = new FileRegion(cached.resource.getFile());
+            response.entity(region)
+                    .type(cached.type)
+                    .header(ACCEPT_RANGES, "bytes")
+                    .header(CONTENT_LENGTH, region.length());
+        }
+
+        /* Point to our source map, it lives next to us */
+        if ((path != null) && (cached.sourceMap != null)) {
+            response.header(SOURCE_MAP, path.substring(path.lastIndexOf('/') + 1) + ".map");
+        }
+
+        /* Caching headers and build response */
+        return headers(response, cached, encoded, immutable).build();
+    }
+
+    /* ====================================================================== */
+
+    /* Produce a "206 Partial Content" (or a 416) response for a file */
+    private Response partial(MultivaluedMap<String, String> headers, Entry entry, boolean immutable) {
+        final String range = headers.getFirst(RANGE);
+        if (range == null) return null;
+
+        /* Ranges are valid only if "If-Range" validates */
+        if (! entry.validates(headers.getFirst(IF_RANGE))) return null;
+
+        /* Parse our ranges (null means "ignore the header") */
+        final long length = entry.resource.getFile().length();
+        final List<ByteRange> ranges = ByteRange.parse(range, length);
+        if (ranges == null) return null;
+
+        /* Nothing satisfiable? Four-sixteen! */
+        if (ranges.isEmpty()) {
+            final ResponseBuilder response = Response.status(Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                                                     .header(CONTENT_RANGE, "bytes */" + length);
+            return headers(response, entry, entry.identity, immutable).build();
+        }
+
+        /* Build up our partial content */
+        final PartialContent content = new PartialContent(entry.resource.getFile(), entry.type, ranges, length);
+        final ResponseBuilder response = Response.status(Status.PARTIAL_CONTENT)
+                                                 .entity(content)
+                                                 .type(content.getMediaType())
+                                                 .header(ACCEPT_RANGES, "bytes")
+                                                 .header(CONTENT_RANGE, content.getContentRange())
+                                                 .header(CONTENT_LENGTH, content.getContentLength());
+        return headers(response, entry, entry.identity, immutable).build();
+    }
+
+    /* Add validators, encoding and caching headers to a response */
+    private ResponseBuilder headers(ResponseBuilder response, Entry entry, Encoded encoded, boolean immutable) {
+        if (entry.isProcessed()) {
+            response.header(VARY, ACCEPT_ENCODING);
+            if (encoded.encoding != null) response.header(CONTENT_ENCODING, encoded.encoding);
+        }
+
+        /* Fingerprinted resources are immutable, the rest use our configuration */
+        if (immutable) {
+            response.header(CACHE_CONTROL, IMMUTABLE)
+                    .header(EXPIRES, immutableExpires.get());
+        } else {
+            response.header(CACHE_CONTROL, cacheControl)
+                    .header(EXPIRES, expires.get());
+        }
+
+        return response.header(ETAG, encoded.etagHeader)
+                       .header(LAST_MODIFIED, entry.lastModifiedHeader);
+    }
+}
@@ -0,0 +1,116 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * A {@link StreamingOutput} writing a region of a file without allocating
+ * heap buffers for each request.
+ * <p>
+ * This is <em>not</em> a zero-copy transfer: the entity streams of our
+ * containers (like <em>Grizzly</em>'s) are not backed by channels, so the
+ * contents are always read from a {@link FileChannel} and copied through a
+ * small pool of large, reusable buffers.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class FileRegion implements StreamingOutput {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final BlockingQueue<ByteBuffer> BUFFERS = new ArrayBlockingQueue<>(16);
+
+    private final File file;
+    private final long position;
+    private final long count;
+
+    /**
+     * Create a new {@link FileRegion} covering the whole file.
+     */
+    FileRegion(File file) {
+        this(file, 0, notNull(file, "Null file").length());
+    }
+
+    /**
+     * Create a new {@link FileRegion} covering {@code count} bytes of the
+     * file starting at {@code position}.
+     */
+    FileRegion(File file, long position, long count) {
+        this.file = notNull(file, "Null file");
+        if (position < 0) throw new IllegalArgumentException("Negative position " + position);
+        if (count < 0) throw new IllegalArgumentException("Negative count " + count);
+        this.position = position;
+        this.count = count;
+    }
+
+    /**
+     * Return the number of bytes in this region.
+     */
+    long length() {
+        return count;
+    }
+
+    @Override
+    public void write(OutputStream output)
+    throws IOException, WebApplicationException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            transfer(channel, position, count, output);
+        }
+        output.flush();
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Transfer {@code count} bytes from the specified {@link FileChannel}
+     * starting at {@code position} to the given {@link OutputStream}.
+     */
+    static void transfer(FileChannel channel, long position, long count, OutputStream output)
+    throws IOException {
+        final ByteBuffer buffer = borrow();
+        try {
+            final byte[] array = buffer.array();
+            while (count > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), count));
+                final int read = channel.read(buffer, position);
+                if (read < 0) throw new EOFException("File truncated at " + position);
+                output.write(array, 0, read);
+                position += read;
+                count -= read;
+            }
+        } finally {
+            BUFFERS.offer(buffer);
+        }
+    }
+
+    private static ByteBuffer borrow() {
+        final ByteBuffer buffer = BUFFERS.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+}
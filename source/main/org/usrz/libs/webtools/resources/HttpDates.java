@@ -0,0 +1,88 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * A simple utility class formatting <em>HTTP</em> dates, like
+ * {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class HttpDates {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter
+                            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+                            .withZone(ZoneOffset.UTC);
+
+    private HttpDates() {
+        throw new IllegalStateException("Do not construct");
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Format the specified time (in milliseconds from the epoch).
+     */
+    static String format(long time) {
+        return FORMATTER.format(Instant.ofEpochMilli(time));
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * A date some {@link Duration} from now, formatted at most once per
+     * second (so that all requests in the same second share it).
+     */
+    static final class Coarse {
+
+        private final long offset;
+        private volatile Formatted formatted = new Formatted(Long.MIN_VALUE, null);
+
+        Coarse(Duration duration) {
+            offset = duration.toMillis();
+        }
+
+        /**
+         * Return the formatted date, one second precise.
+         */
+        String get() {
+            final long second = System.currentTimeMillis() / 1000;
+            final Formatted current = formatted;
+            if (current.second == second) return current.value;
+
+            final Formatted updated = new Formatted(second, format(second * 1000 + offset));
+            formatted = updated;
+            return updated.value;
+        }
+    }
+
+    private static final class Formatted {
+
+        private final long second;
+        private final String value;
+
+        private Formatted(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * The manifest of a tree of assets precompiled by {@link AssetsBuilder},
+ * recording the type, size, content hash and dependencies of every file.
+ * <p>
+ * Manifests are written as <em>JSON</em>, like:
+ * <pre>
+ * {
+ *   "version" : 1,
+ *   "assets" : {
+ *     "style.less" : {
+ *       "type" : "text/css; charset=UTF-8",
+ *       "processed" : true,
+ *       "size" : 1234,
+ *       "hash" : "0a1b2c...",
+ *       "dependencies" : [ "mixins.less" ]
+ *     }
+ *   }
+ * }
+ * </pre>
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class Manifest {
+
+    /** The default name of the manifest file in a precompiled tree. */
+    static final String FILE_NAME = "manifest.json";
+
+    private static final int VERSION = 1;
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Map<String, Asset> assets = new TreeMap<>();
+
+    Manifest() {
+        /* Nothing to do */
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the {@link Asset} for the specified path, or {@code null}.
+     */
+    Asset get(String path) {
+        return assets.get(path);
+    }
+
+    /**
+     * Add an {@link Asset} to this manifest.
+     */
+    void put(Asset asset) {
+        assets.put(asset.path, asset);
+    }
+
+    /**
+     * Return all the {@link Asset}s in this manifest.
+     */
+    Collection<Asset> assets() {
+        return Collections.unmodifiableCollection(assets.values());
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Write this manifest to the specified file.
+     */
+    void write(File file)
+    throws IOException {
+        try (JsonGenerator generator = JSON.createGenerator(file, JsonEncoding.UTF8)) {
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartObject();
+            generator.writeNumberField("version", VERSION);
+            generator.writeObjectFieldStart("assets");
+            for (Asset asset: assets.values()) {
+                generator.writeObjectFieldStart(asset.path);
+                generator.writeStringField("type", asset.type);
+                generator.writeBooleanField("processed", asset.processed);
+                generator.writeNumberField("size", asset.size);
+                generator.writeStringField("hash", asset.hash);
+                generator.writeArrayFieldStart("dependencies");
+                for (String dependency: asset.dependencies) generator.writeString(dependency);
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Read a manifest from the specified file.
+     */
+    static Manifest read(File file)
+    throws IOException {
+        final Manifest manifest = new Manifest();
+        try (JsonParser parser = JSON.createParser(file)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+
+                if ("version".equals(field)) {
+                    if (parser.getIntValue() != VERSION)
+                        throw new IOException("Unsupported manifest version " + parser.getText() + " in " + file);
+
+                } else if ("assets".equals(field)) {
+                    expect(parser, token, JsonToken.START_OBJECT);
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String path = parser.getCurrentName();
+                        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+                        manifest.put(readAsset(parser, path));
+                    }
+
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return manifest;
+    }
+
+    private static Asset readAsset(JsonParser parser, String path)
+    throws IOException {
+        final List<String> dependencies = new ArrayList<>();
+        String type = null, hash = null;
+        boolean processed = false;
+        long size = -1;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            switch (field) {
+                case "type":      type = parser.getText(); break;
+                case "processed": processed = parser.getBooleanValue(); break;
+                case "size":      size = parser.getLongValue(); break;
+                case "hash":      hash = parser.getText(); break;
+                case "dependencies":
+                    expect(parser, token, JsonToken.START_ARRAY);
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) dependencies.add(parser.getText());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+
+        if (type == null) throw new IOException("No type for asset \"" + path + "\" at " + parser.getCurrentLocation());
+        if (hash == null) throw new IOException("No hash for asset \"" + path + "\" at " + parser.getCurrentLocation());
+        return new Asset(path, type, processed, size, hash, dependencies);
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected)
+    throws IOException {
+        if (actual != expected) throw new IOException("Expected " + expected + " but got " + actual + " at " + parser.getCurrentLocation());
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * A single asset described by a {@link Manifest}.
+     */
+    static final class Asset {
+
+        final String path;
+        final String type;
+        final boolean processed;
+        final long size;
+        final String hash;
+        final List<String> dependencies;
+
+        Asset(String path, String type, boolean processed, long size, String hash, List<String> dependencies) {
+            this.path = notNull(path, "Null path");
+            this.type = notNull(type, "Null type");
+            this.processed = processed;
+            this.size = size;
+            this.hash = notNull(hash, "Null hash");
+            this.dependencies = Collections.unmodifiableList(new ArrayList<>(dependencies));
+        }
+    }
+}
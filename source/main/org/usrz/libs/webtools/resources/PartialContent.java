@@ -0,0 +1,130 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Collections.singletonMap;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.UUID;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * A {@link StreamingOutput} writing one or more {@link ByteRange}s of a
+ * file, either as a single range or as a {@code multipart/byteranges}
+ * entity.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class PartialContent implements StreamingOutput {
+
+    private static final byte[] CRLF = "\r\n".getBytes(US_ASCII);
+
+    private final File file;
+    private final List<ByteRange> ranges;
+    private final String boundary;
+    private final MediaType type;
+    private final long total;
+    private final long length;
+
+    PartialContent(File file, MediaType type, List<ByteRange> ranges, long total) {
+        this.file = notNull(file, "Null file");
+        this.type = notNull(type, "Null type");
+        this.ranges = notNull(ranges, "Null ranges");
+        if (ranges.isEmpty()) throw new IllegalArgumentException("No ranges specified");
+        this.total = total;
+
+        if (ranges.size() == 1) {
+            /* A single range, just the plain bytes */
+            length = ranges.get(0).length();
+            boundary = null;
+        } else {
+            /* Multiple ranges, compute our length beforehand */
+            boundary = UUID.randomUUID().toString();
+            long length = 0;
+            for (ByteRange range: ranges)
+                length += header(range).length + range.length() + CRLF.length;
+            this.length = length + trailer().length;
+        }
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the {@link MediaType} of this entity.
+     */
+    MediaType getMediaType() {
+        return boundary == null ? type : new MediaType("multipart", "byteranges", singletonMap("boundary", boundary));
+    }
+
+    /**
+     * Return the value of the {@code Content-Range} header, or {@code null}
+     * if this entity is a {@code multipart/byteranges} one.
+     */
+    String getContentRange() {
+        return boundary == null ? ranges.get(0).contentRange(total) : null;
+    }
+
+    /**
+     * Return the exact number of bytes that will be written.
+     */
+    long getContentLength() {
+        return length;
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public void write(OutputStream output)
+    throws IOException, WebApplicationException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            if (boundary == null) {
+                final ByteRange range = ranges.get(0);
+                FileRegion.transfer(channel, range.first, range.length(), output);
+            } else {
+                for (ByteRange range: ranges) {
+                    output.write(header(range));
+                    FileRegion.transfer(channel, range.first, range.length(), output);
+                    output.write(CRLF);
+                }
+                output.write(trailer());
+            }
+        }
+        output.flush();
+    }
+
+    /* ====================================================================== */
+
+    private byte[] header(ByteRange range) {
+        return ("--" + boundary + "\r\n"
+              + "Content-Type: " + type + "\r\n"
+              + "Content-Range: " + range.contentRange(total) + "\r\n"
+              + "\r\n").getBytes(US_ASCII);
+    }
+
+    private byte[] trailer() {
+        return ("--" + boundary + "--\r\n").getBytes(US_ASCII);
+    }
+}
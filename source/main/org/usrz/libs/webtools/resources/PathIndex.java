@@ -0,0 +1,225 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * An in-memory index of all files and directories under a root directory,
+ * keyed by their normalized path relative to the root.
+ * <p>
+ * Symbolic links (and other special files) are never followed: they are
+ * simply recorded, and lookups of (or through) them are left to the file
+ * system.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class PathIndex {
+
+    private final Log log = new Log();
+    private final Path root;
+
+    private volatile ConcurrentMap<String, Node> nodes;
+
+    PathIndex(File root) {
+        this.root = notNull(root, "Null root").toPath();
+        rebuild();
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the normalized path of the specified file relative to our root,
+     * or {@code null} if the file is outside of our root.
+     */
+    String relativize(File file) {
+        try {
+            final Path path = root.resolve(file.toPath()).normalize();
+            if (! path.startsWith(root)) return null;
+            return root.relativize(path).toString().replace(File.separatorChar, '/');
+        } catch (InvalidPathException exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the {@link Node} for the specified relative path, a
+     * {@linkplain Node#isLink() link} if the path goes through one, or
+     * {@code null} if nothing exists at the specified path.
+     */
+    Node get(String path) {
+        final ConcurrentMap<String, Node> nodes = this.nodes;
+        final Node node = nodes.get(path);
+        if (node != null) return node;
+
+        /* Not found, but if any parent is a link, we can't tell */
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            final Node parent = nodes.get(path.substring(0, slash));
+            if (parent != null) return parent.isLink() ? parent : null;
+        }
+        return null;
+    }
+
+    /**
+     * Return the number of files and directories in this index.
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Update this index after a change was reported for the specified file
+     * (any change to the root directory rebuilds the whole index).
+     */
+    void update(File file) {
+        final Path path = file.toPath();
+        if (path.equals(root)) {
+            rebuild();
+            return;
+        }
+
+        final String relative = relativize(file);
+        if ((relative == null) || relative.isEmpty()) return;
+
+        /* Look again at the file and anything under it */
+        final Map<String, Node> updated = new HashMap<>();
+        try {
+            walk(path, updated);
+        } catch (NoSuchFileException exception) {
+            log.trace("File \"%s\" removed from index", relative);
+        } catch (IOException exception) {
+            log.warn(exception, "Unable to index \"%s\"", file);
+            return;
+        }
+
+        /* Add what's there first, then forget what's gone (never both) */
+        final ConcurrentMap<String, Node> nodes = this.nodes;
+        final String prefix = relative + "/";
+        nodes.putAll(updated);
+        nodes.keySet().removeIf((key) -> (key.equals(relative) || key.startsWith(prefix)) && (! updated.containsKey(key)));
+    }
+
+    /**
+     * Rebuild this index from scratch.
+     */
+    void rebuild() {
+        final long started = System.nanoTime();
+        final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+        try {
+            walk(root, nodes);
+        } catch (IOException exception) {
+            throw new ResourceException("Unable to index \"" + root + "\"", exception);
+        }
+        nodes.remove("");
+        this.nodes = nodes;
+        log.debug("Indexed %d entries in \"%s\" in %d ms", nodes.size(), root, (System.nanoTime() - started) / 1000000);
+    }
+
+    /* ====================================================================== */
+
+    private void walk(Path start, Map<String, Node> nodes)
+    throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) {
+                put(directory, attributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                put(file, attributes);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exception)
+            throws IOException {
+                if (file.equals(start)) throw exception;
+                log.debug("Unable to index \"%s\": %s", file, exception.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+
+            private void put(Path path, BasicFileAttributes attributes) {
+                final String relative = root.relativize(path).toString().replace(File.separatorChar, '/');
+                nodes.put(relative, new Node(attributes));
+            }
+        });
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * What we know about a file or directory.
+     */
+    static final class Node {
+
+        private static final int FILE = 0;
+        private static final int DIRECTORY = 1;
+        private static final int LINK = 2;
+
+        private final int type;
+        private final long size;
+        private final long lastModified;
+
+        private Node(BasicFileAttributes attributes) {
+            type = attributes.isSymbolicLink() || attributes.isOther() ? LINK :
+                   attributes.isDirectory() ? DIRECTORY :
+                   FILE;
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        boolean isFile() {
+            return type == FILE;
+        }
+
+        boolean isDirectory() {
+            return type == DIRECTORY;
+        }
+
+        boolean isLink() {
+            return type == LINK;
+        }
+
+        long size() {
+            return size;
+        }
+
+        long lastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -27,7 +27,10 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import org.usrz.libs.utils.Check;
 
@@ -37,7 +40,7 @@ public final class Resource {
     private final Charset charset;
     private final File file;
 
-    private long lastAccessedAt = -1;
+    private volatile long version = -1;
 
     Resource(ResourceManager manager, File file, Charset charset) {
         this.manager = Check.notNull(manager, "Null resource manager");
@@ -96,7 +99,7 @@ public final class Resource {
     public InputStream stream() {
         try {
             final FileInputStream input = new FileInputStream(file);
-            lastAccessedAt = file.lastModified();
+            version = manager.version(file);
             return new BufferedInputStream(input);
         } catch (IOException exception) {
             throw new ResourceException("I/O error reading \"" + file + "\"", exception);
@@ -104,13 +107,10 @@ public final class Resource {
     }
 
     public <O extends OutputStream> O stream(O output) {
-        try {
-            final InputStream input = stream();
-            final byte[] buffer = new byte[4096];
-            int read;
-            while ((read = input.read(buffer)) >= 0)
-                if (read > 0) output.write(buffer, 0, read);
-            input.close();
+        try (final FileInputStream input = new FileInputStream(file)) {
+            version = manager.version(file);
+            final FileChannel channel = input.getChannel();
+            FileRegion.transfer(channel, 0, channel.size(), output);
             output.flush();
             return output;
         } catch (IOException exception) {
@@ -122,14 +122,24 @@ public final class Resource {
         return stream(new ByteArrayOutputStream()).toByteArray();
     }
 
+    /* Read the attributes of our file, as if we read its contents */
+    BasicFileAttributes attributes() {
+        try {
+            version = manager.version(file);
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException exception) {
+            throw new ResourceException("I/O error reading attributes of \"" + file + "\"", exception);
+        }
+    }
+
     /* ====================================================================== */
 
     public long lastModifiedAt() {
-        return file.lastModified();
+        return manager.lastModified(file);
     }
 
     public boolean hasChanged() {
-        return lastAccessedAt != lastModifiedAt();
+        return version != manager.version(file);
     }
 
     /* ====================================================================== */
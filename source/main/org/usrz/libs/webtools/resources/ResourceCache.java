@@ -0,0 +1,312 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * The size-bounded cache used by {@link ServeResource}.
+ * <p>
+ * Entries are weighted by the number of bytes they hold (all their encoded
+ * variants) and whenever the total weight exceeds the configured maximum
+ * the <em>least recently used</em> entries are evicted.
+ * <p>
+ * Entries are normally keyed by their {@link Resource}, but any other key
+ * (like the list of members of a {@linkplain ComboResource bundle}) can be
+ * used as well.
+ * <p>
+ * Recency is tracked in a number of access-ordered <em>segments</em> (keys
+ * are spread across them by hash) so that lookups only briefly lock one of
+ * them, and eviction simply removes the least recently used among the
+ * oldest entries of each segment.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public final class ResourceCache {
+
+    /* A rough estimate of what each entry costs us beyond its contents */
+    private static final int ENTRY_OVERHEAD = 512;
+    /* How many access-ordered segments track recency */
+    private static final int SEGMENTS = 16;
+
+    private final Log log = new Log();
+
+    private final ConcurrentMap<Object, Node> nodes = new ConcurrentHashMap<>();
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong weight = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    private final long maximumWeight;
+
+    ResourceCache(long maximumWeight) {
+        if (maximumWeight < 0) throw new IllegalArgumentException("Negative maximum weight " + maximumWeight);
+        this.maximumWeight = maximumWeight;
+        for (int x = 0; x < SEGMENTS; x ++) segments[x] = new Segment();
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the number of lookups returning a valid entry.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of lookups not returning a valid entry.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Return the number of entries evicted to stay within the maximum weight.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Return the number of entries removed because their resources changed.
+     */
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Return the number of lookups returning a stale entry (while it is
+     * being rebuilt).
+     */
+    public long getStaleCount() {
+        return stale.sum();
+    }
+
+    /**
+     * Return the current weight (approximately, in bytes) of this cache.
+     */
+    public long getWeight() {
+        return weight.get();
+    }
+
+    /**
+     * Return the maximum weight (approximately, in bytes) of this cache.
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Return the number of entries in this cache.
+     */
+    public int size() {
+        return nodes.size();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[size=" + size()
+                                         + ",weight=" + getWeight()
+                                         + ",maximumWeight=" + maximumWeight
+                                         + ",hits=" + getHitCount()
+                                         + ",misses=" + getMissCount()
+                                         + ",evictions=" + getEvictionCount()
+                                         + ",invalidations=" + getInvalidationCount()
+                                         + ",stale=" + getStaleCount()
+                                         + "]";
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the <em>valid</em> {@link Entry} cached for the specified key
+     * (normally a {@link Resource}), removing it if its resources changed.
+     */
+    Entry get(Object key) {
+        return get(key, false);
+    }
+
+    /**
+     * Return the {@link Entry} cached for the specified key (normally a
+     * {@link Resource}).
+     * <p>
+     * When {@code allowStale} is {@code true}, processed entries whose
+     * resources changed will be returned (and kept) anyway, otherwise
+     * they are removed.
+     */
+    Entry get(Object key, boolean allowStale) {
+        final Node node = nodes.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (! node.entry.isValid()) {
+            if (allowStale && node.entry.isProcessed()) {
+                touch(node);
+                stale.increment();
+                return node.entry;
+            }
+
+            invalidations.increment();
+            misses.increment();
+            remove(node);
+            return null;
+        }
+
+        touch(node);
+        hits.increment();
+        return node.entry;
+    }
+
+    /**
+     * Return the {@link Entry} cached for the specified key, without
+     * checking it, counting the lookup or updating its recency.
+     */
+    Entry peek(Object key) {
+        final Node node = nodes.get(key);
+        return node == null ? null : node.entry;
+    }
+
+    /**
+     * Cache the specified {@link Entry} (keyed by its resource), evicting
+     * others if needed.
+     */
+    void put(Entry entry) {
+        put(notNull(entry, "Null entry").resource, entry);
+    }
+
+    /**
+     * Cache the specified {@link Entry} under the specified key, evicting
+     * others if needed.
+     */
+    void put(Object key, Entry entry) {
+        final Node node = new Node(notNull(key, "Null key"), notNull(entry, "Null entry"));
+        if (node.weight > maximumWeight) {
+            log.debug("Not caching %s, weight %d exceeds maximum %d", key, node.weight, maximumWeight);
+            remove(key);
+            return;
+        }
+
+        final Segment segment = segment(key);
+        final Node previous;
+        synchronized (segment) {
+            previous = nodes.put(key, node);
+            segment.put(key, node);
+        }
+        weight.addAndGet(node.weight - (previous == null ? 0 : previous.weight));
+        if (weight.get() > maximumWeight) evict();
+    }
+
+    /**
+     * Remove any {@link Entry} cached for the specified key, returning it
+     * (or {@code null} if nothing was cached).
+     */
+    Entry remove(Object key) {
+        final Node node = nodes.get(key);
+        return (node != null) && remove(node) ? node.entry : null;
+    }
+
+    /* ====================================================================== */
+
+    private Segment segment(Object key) {
+        final int hash = key.hashCode();
+        return segments[((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % SEGMENTS];
+    }
+
+    /* Mark a node as the most recently used (if it's still cached) */
+    private void touch(Node node) {
+        final Segment segment = segment(node.key);
+        synchronized (segment) {
+            if (segment.get(node.key) == node) node.accessed = clock.incrementAndGet();
+        }
+    }
+
+    private boolean remove(Node node) {
+        final Segment segment = segment(node.key);
+        synchronized (segment) {
+            if (! nodes.remove(node.key, node)) return false;
+            segment.remove(node.key);
+        }
+        weight.addAndGet(-node.weight);
+        return true;
+    }
+
+    private synchronized void evict() {
+        while (weight.get() > maximumWeight) {
+
+            /* The least recently used among the eldest nodes of each segment */
+            Node eldest = null;
+            for (Segment segment: segments) {
+                final Node node = segment.eldest();
+                if ((node != null) && ((eldest == null) || (node.accessed < eldest.accessed))) eldest = node;
+            }
+
+            if (eldest == null) return;
+            if (remove(eldest)) {
+                log.debug("Evicted %s (weight %d)", eldest.key, eldest.weight);
+                evictions.increment();
+            }
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* Nodes in access order, least recently used first (lock before use) */
+    private static final class Segment extends LinkedHashMap<Object, Node> {
+
+        private Segment() {
+            super(16, 0.75f, true);
+        }
+
+        private synchronized Node eldest() {
+            final Iterator<Node> iterator = values().iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+    /* ====================================================================== */
+
+    private final class Node {
+
+        private final Object key;
+        private final Entry entry;
+        private final long weight;
+        private volatile long accessed;
+
+        private Node(Object key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+            weight = entry.weight() + ENTRY_OVERHEAD;
+            accessed = clock.incrementAndGet();
+        }
+    }
+}
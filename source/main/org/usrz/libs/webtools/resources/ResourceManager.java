@@ -18,24 +18,112 @@ package org.usrz.libs.webtools.resources;
 import static org.usrz.libs.utils.Charsets.UTF8;
 import static org.usrz.libs.utils.Check.notNull;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
+import org.usrz.libs.configurations.Configurations;
 import org.usrz.libs.logging.Log;
 
-public class ResourceManager {
+public class ResourceManager implements Closeable {
+
+    /**
+     * The default maximum number of missing files to remember, when changes
+     * are {@linkplain ChangeDetection#WATCH watched} or
+     * {@linkplain ChangeDetection#NEVER never} happen (otherwise missing
+     * files are not remembered by default).
+     */
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 4096;
+    /** The default time missing files are remembered for (1 second). */
+    public static final Duration DEFAULT_NEGATIVE_CACHE_TTL = Duration.ofSeconds(1);
 
     private final Log log = new Log();
+    private final ChangeDetector detector;
     private final Charset charset;
     private final File root;
 
+    /* Files we know are missing, and until when (nanoTime) */
+    private final ConcurrentMap<File, Long> missing = new ConcurrentHashMap<>();
+    private final int negativeCacheSize;
+    private final long negativeCacheTtl;
+
+    /* Our index of the root directory, if any */
+    private final PathIndex index;
+
     public ResourceManager(File root) {
         this(root, UTF8);
     }
 
     public ResourceManager(File root, Charset charset) {
+        this(root, charset, ChangeDetection.STAT, ChangeDetection.DEFAULT_INTERVAL);
+    }
+
+    public ResourceManager(File root, Charset charset, ChangeDetection detection, Duration interval) {
+        this(root, charset, detection, interval, negativeCacheSize(detection), DEFAULT_NEGATIVE_CACHE_TTL);
+    }
+
+    /**
+     * Create a new {@link ResourceManager} from some {@link Configurations}:
+     * <dl>
+     *   <dt>{@code root_path}</dt>
+     *   <dd><em>(Required)</em> The root directory of all resources.</dd>
+     *   <dt>{@code charset}</dt>
+     *   <dd><em>(Default: {@code UTF-8})</em> The default charset name for text files.</dd>
+     *   <dt>{@code change_detection}</dt>
+     *   <dd><em>(Default: {@code stat})</em> How to detect changed files (see {@link ChangeDetection}).</dd>
+     *   <dt>{@code change_interval}</dt>
+     *   <dd><em>(Default: {@code 2 seconds})</em> A {@link Duration} for polling.</dd>
+     *   <dt>{@code negative_cache_size}</dt>
+     *   <dd><em>(Default: {@code 4096} when watching or never changing, {@code 0} otherwise)</em> How
+     *       many missing files to remember ({@code 0} disables).</dd>
+     *   <dt>{@code negative_cache_ttl}</dt>
+     *   <dd><em>(Default: {@code 1 second})</em> A {@link Duration} for remembering missing files.</dd>
+     *   <dt>{@code index}</dt>
+     *   <dd><em>(Default: {@code false})</em> Whether to keep an in-memory index of the root directory
+     *       (only with {@code watch} or {@code never} change detection).</dd>
+     * </dl>
+     */
+    public ResourceManager(Configurations configurations) {
+        this(configurations.requireFile("root_path"),
+             Charset.forName(configurations.get("charset", UTF8.name())),
+             ChangeDetection.from(configurations),
+             configurations.get("change_interval", ChangeDetection.DEFAULT_INTERVAL),
+             configurations.get("negative_cache_size", negativeCacheSize(ChangeDetection.from(configurations))),
+             configurations.get("negative_cache_ttl", DEFAULT_NEGATIVE_CACHE_TTL),
+             configurations.get("index", false));
+    }
+
+    /**
+     * Create a new {@link ResourceManager} remembering up to the specified
+     * number of missing files for the specified {@link Duration}, or until
+     * a change is detected in their directory.
+     */
+    public ResourceManager(File root, Charset charset, ChangeDetection detection, Duration interval,
+                           int negativeCacheSize, Duration negativeCacheTtl) {
+        this(root, charset, detection, interval, negativeCacheSize, negativeCacheTtl, false);
+    }
+
+    /**
+     * Create a new {@link ResourceManager} optionally keeping an in-memory
+     * index of the root directory, resolving resources without touching the
+     * disk.
+     * <p>
+     * The index is kept up to date by {@link ChangeDetection#WATCH watching}
+     * the root directory (or never updated with {@link ChangeDetection#NEVER}),
+     * therefore it is ignored with any other {@link ChangeDetection} or when
+     * watching is not available.
+     */
+    public ResourceManager(File root, Charset charset, ChangeDetection detection, Duration interval,
+                           int negativeCacheSize, Duration negativeCacheTtl, boolean index) {
         this.charset = notNull(charset, "Null charset");
+        if (negativeCacheSize < 0) throw new IllegalArgumentException("Negative cache size " + negativeCacheSize);
+        this.negativeCacheSize = negativeCacheSize;
+        this.negativeCacheTtl = notNull(negativeCacheTtl, "Null negative cache TTL").toNanos();
         if (! notNull(root, "Null root directory").isDirectory())
             throw new ResourceException("Invalid root directory \"" + root + "\"");
         try {
@@ -43,7 +131,37 @@ public class ResourceManager {
         } catch (IOException exception) {
             throw new ResourceException("I/O error checking root directory \"" + root + "\"", exception);
         }
-        log.debug("ResourceManager rooted at %s using default charset %s", this.root, this.charset.name());
+        detector = ChangeDetector.create(detection, this.root, interval);
+        if (negativeCacheSize > 0) detector.addListener(this::found);
+
+        /* Index only if we can keep the index up to date */
+        if (index && (detector.isWatching() || (detection == ChangeDetection.NEVER))) {
+            this.index = new PathIndex(this.root);
+            detector.addListener(this.index::update);
+        } else {
+            if (index) log.warn("Not indexing \"%s\", changes can not be watched", this.root);
+            this.index = null;
+        }
+        log.debug("ResourceManager rooted at %s using default charset %s and %s change detection", this.root, this.charset.name(), detection);
+    }
+
+    /**
+     * Add a listener notified with the files seen changing on disk.
+     * <p>
+     * Listeners are only notified when {@link ChangeDetection#WATCH} or
+     * {@link ChangeDetection#POLL} are used. When the root directory itself
+     * is notified, <em>any</em> file might have changed.
+     */
+    public void addChangeListener(Consumer<File> listener) {
+        detector.addListener(listener);
+    }
+
+    /**
+     * Stop watching for changes (if watching at all).
+     */
+    @Override
+    public void close() {
+        detector.close();
     }
 
     public File getRootPath() {
@@ -54,16 +172,57 @@ public class ResourceManager {
         return charset;
     }
 
+    /* Return the last modified time of a file, from our index if we have one */
+    long lastModified(File file) {
+        if (index != null) {
+            final String path = index.relativize(file);
+            final PathIndex.Node node = path == null ? null : index.get(path);
+            if ((node != null) && node.isFile()) return node.lastModified();
+        }
+        return file.lastModified();
+    }
+
+    /* Return the current version of a file, as per our change detection */
+    long version(File file) {
+        return detector.version(file);
+    }
+
+    /* Check (in memory only) whether a file is known to be missing */
+    boolean isMissing(String fileName) {
+        final File absolute = normalize(new File(root, fileName));
+        if (isMissing(absolute)) return true;
+        if (index == null) return false;
+
+        /* Outside of our root? Let getResource(...) fail as usual */
+        final String path = index.relativize(absolute);
+        return (path != null) && (index.get(path) == null);
+    }
+
     public Resource getResource(String fileName) {
         return getResource(new File(root, fileName));
     }
 
     public Resource getResource(File file) {
+        /* Did we recently see this file missing? */
+        final File absolute = normalize(file);
+        if (isMissing(absolute)) return null;
+
+        /* Indexed? Our index knows what's there (unless links are involved),
+         * but outside of our root we check the disk, and fail as usual */
+        final String path = index == null ? null : index.relativize(absolute);
+        if (path != null) {
+            final PathIndex.Node node = index.get(path);
+            if (node == null) return null;
+            if (node.isDirectory()) throw new ResourceException("Resource \"" + file + "\" is not a file");
+            if (node.isFile()) return new Resource(this, new File(root, path), charset);
+        }
+
         try {
             final File canonical = file.getCanonicalFile();
 
             /* Check that we're returning a file */
             if (!canonical.exists()) {
+                missing(absolute);
                 return null;
             } else if (!canonical.isFile()) {
                 throw new ResourceException("Resource \"" + file + "\" is not a file");
@@ -87,4 +246,50 @@ public class ResourceManager {
         }
 
     }
+
+    /* ====================================================================== */
+
+    /* Absolute, without "." or ".." (so that aliases share negative cache entries) */
+    private static File normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize().toFile();
+    }
+
+    /* Without watching, a remembered missing file would 404 after creation */
+    private static int negativeCacheSize(ChangeDetection detection) {
+        return (detection == ChangeDetection.WATCH) || (detection == ChangeDetection.NEVER) ? DEFAULT_NEGATIVE_CACHE_SIZE : 0;
+    }
+
+    private boolean isMissing(File file) {
+        if (negativeCacheSize == 0) return false;
+        final Long expires = missing.get(file);
+        if (expires == null) return false;
+        if ((System.nanoTime() - expires) < 0) return true;
+        missing.remove(file, expires);
+        return false;
+    }
+
+    private void missing(File file) {
+        if (negativeCacheSize == 0) return;
+
+        /* Full? Forget what expired, and if still full, the oldest quarter */
+        if (missing.size() >= negativeCacheSize) {
+            final long now = System.nanoTime();
+            missing.values().removeIf((expires) -> (now - expires) >= 0);
+            if (missing.size() >= negativeCacheSize) {
+                final long[] expiries = missing.values().stream().mapToLong(Long::longValue).sorted().toArray();
+                if (expiries.length > 0) {
+                    final long oldest = expiries[(expiries.length - 1) / 4];
+                    missing.values().removeIf((expires) -> (expires - oldest) <= 0);
+                }
+            }
+        }
+
+        missing.put(file, System.nanoTime() + negativeCacheTtl);
+    }
+
+    private void found(File file) {
+        /* New directories (or overflows) might bring anything with them */
+        if (file.equals(root) || file.isDirectory()) missing.clear();
+        else missing.remove(file);
+    }
 }
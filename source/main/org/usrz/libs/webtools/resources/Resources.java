@@ -17,6 +17,7 @@ package org.usrz.libs.webtools.resources;
 
 import static org.usrz.libs.utils.Check.notNull;
 
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -39,6 +40,10 @@ public class Resources {
         return resource;
     }
 
+    public Set<Resource> subResources() {
+        return Collections.unmodifiableSet(subResources);
+    }
+
     public boolean hasChanged() {
         if (resource.hasChanged()) return true;
         for (Resource resource: subResources)
@@ -46,5 +51,4 @@ public class Resources {
         return false;
     }
 
-
 }
@@ -16,19 +16,27 @@
 package org.usrz.libs.webtools.resources;
 
 import static org.usrz.libs.utils.Charsets.UTF8;
-import static org.usrz.libs.utils.Check.notNull;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Date;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.GET;
@@ -36,10 +44,12 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
-import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
 import org.usrz.libs.configurations.Configurations;
@@ -48,12 +58,8 @@ import org.usrz.libs.utils.concurrent.KeyedExecutor;
 import org.usrz.libs.utils.concurrent.NotifyingFuture;
 import org.usrz.libs.utils.concurrent.SimpleExecutorProvider;
 import org.usrz.libs.webtools.lesscss.LessCSS;
-import org.usrz.libs.webtools.uglifyjs.UglifyJS;
-import org.usrz.libs.webtools.utils.MediaTypes;
-
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-import com.fasterxml.jackson.core.JsonParser;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
 
 /**
  * A <em>JAX-RS</em> resource serving static files.
@@ -65,45 +71,158 @@ import com.fasterxml.jackson.core.JsonParser;
  * be cached in memory and reprocessed only if the source file changes and
  * cache headers will be produced.
  * <p>
+ * Every response carries a strong {@code ETag} computed from its contents
+ * (once per processed entry, once per version of a static file), and
+ * conditional requests ({@code If-None-Match}, {@code If-Modified-Since})
+ * are answered with {@code 304 Not Modified}.
+ * <p>
+ * Requests for known resources with a valid cache entry (and for paths
+ * known to be missing) are answered straight away on the calling thread;
+ * only requests needing compilation or disk access are queued for
+ * processing.
+ * <p>
+ * Processed content is also kept <em>precompressed</em> using all the
+ * {@linkplain ContentEncoders#available(ClassLoader) available} content
+ * encodings, and the best variant is selected according to the request's
+ * {@code Accept-Encoding} header.
+ * <p>
+ * Static files can be requested partially, using single or multiple byte
+ * ranges (in the latter case as {@code multipart/byteranges}) optionally
+ * validated by an {@code If-Range} header.
+ * <p>
+ * Compilation is <em>single-flight</em>: concurrent requests for the same
+ * resource, even through different aliases (like {@code app.css} and
+ * {@code app.less}), all wait for a single compilation.
+ * <p>
+ * Processed <em>LessCSS</em> files are invalidated when any of the files
+ * they {@code @import} changes. When changes are detected by watching or
+ * polling (see {@link ChangeDetection}), only the cached entries depending
+ * on the changed file are rebuilt, in the background. Optionally, stale
+ * entries can be served while they are being rebuilt, and if rebuilding
+ * fails, the last good output is kept.
+ * <p>
+ * Resources can also be requested by their {@linkplain #fingerprint(String)
+ * fingerprinted} path (for example {@code css/app.0123456789.css}), and
+ * when the fingerprint matches their current content, they will be served
+ * with {@code Cache-Control: public, max-age=31536000, immutable} rather
+ * than using the configured {@code cache} duration.
+ * <p>
+ * Optionally, <em>source maps</em> can be generated for processed
+ * <em>LessCSS</em> and (minified) <em>JavaScript</em> resources: they are
+ * cached together with the resource, served by appending {@code .map} to
+ * its path, and advertised in the {@code SourceMap} header of its
+ * responses.
+ * <p>
+ * Processed resources can also be kept in a persistent
+ * {@link CompiledAssetStore}, keyed by a hash of their contents (and of the
+ * contents of all the files they import) and of the compilers and options
+ * used, so that they don't need to be compiled again after a restart, or
+ * by other nodes sharing the same store (for example a
+ * {@link DirectoryAssetStore} on a shared mount).
+ * <p>
+ * Optionally, all resources requiring processing can be compiled (or loaded
+ * from the {@code compiled_cache}) in parallel at startup (see
+ * {@link #getWarmup()} and {@link #isReady()}).
+ * <p>
  * Configurations are as follows:
  * <dl>
  *   <dt>{@code root_path}</dt>
  *   <dd><em>(Required)</em> The path containing all the resources to serve.
  *   <dt>{@code minify}</dt>
  *   <dd><em>(Default: {@code false})</em> Whether to minify JavaScript, CSS and LessCSS resources.</dd>
+ *   <dt>{@code engines}</dt>
+ *   <dd><em>(Default: number of processors)</em> The maximum number of <em>LessCSS</em> (and of
+ *       <em>UglifyJS</em>) engines compiling concurrently.</dd>
+ *   <dt>{@code script_backend}</dt>
+ *   <dd><em>(Default: {@code default})</em> The <em>JavaScript</em> engine to compile with: one of
+ *       {@code default}, {@code nashorn} or {@code graaljs}, or a {@link ScriptBackend} class name
+ *       (see {@link ScriptBackends}).</dd>
+ *   <dt>{@code script_cache}</dt>
+ *   <dd><em>(Optional)</em> A directory where <em>Nashorn</em> persists the code it compiles from the
+ *       <em>LessCSS</em> and <em>UglifyJS</em> scripts, reused (unless those change) after restarts
+ *       (no effect with other backends).</dd>
  *   <dt>{@code cache}</dt>
  *   <dd><em>(Default: {@code no-cache})</em> A {@link Duration} for the HTTP cache headers.</dd>
  *   <dt>{@code charset}</dt>
  *   <dd><em>(Default: {@code UTF-8})</em> The default charset name for text files.</dd>
+ *   <dt>{@code compress}</dt>
+ *   <dd><em>(Default: {@code true})</em> Whether to keep precompressed variants of processed resources.</dd>
+ *   <dt>{@code cache_size}</dt>
+ *   <dd><em>(Default: {@code 67108864}, 64 MB)</em> The approximate maximum number of bytes to cache.</dd>
+ *   <dt>{@code change_detection}</dt>
+ *   <dd><em>(Default: {@code stat})</em> How to detect changed files: one of {@code stat}, {@code poll},
+ *       {@code watch} or {@code never} (see {@link ChangeDetection}).</dd>
+ *   <dt>{@code change_interval}</dt>
+ *   <dd><em>(Default: {@code 2 seconds})</em> A {@link Duration} for polling (also when watching is not available).</dd>
+ *   <dt>{@code negative_cache_size}</dt>
+ *   <dd><em>(Default: {@code 4096} with {@code watch} or {@code never} change detection, {@code 0}
+ *       otherwise)</em> How many missing files to remember, answering repeated {@code 404}s without
+ *       touching the disk ({@code 0} disables).</dd>
+ *   <dt>{@code negative_cache_ttl}</dt>
+ *   <dd><em>(Default: {@code 1 second})</em> A {@link Duration} for remembering missing files (unless
+ *       a change is detected earlier).</dd>
+ *   <dt>{@code index}</dt>
+ *   <dd><em>(Default: {@code false})</em> Whether to resolve resources through an in-memory index of
+ *       the root path (only with {@code watch} or {@code never} change detection).</dd>
+ *   <dt>{@code stale_while_revalidate}</dt>
+ *   <dd><em>(Default: {@code false})</em> Whether to keep serving the previous version of changed
+ *       processed resources while they are rebuilt in the background (and if rebuilding fails).</dd>
+ *   <dt>{@code source_maps}</dt>
+ *   <dd><em>(Default: {@code false})</em> Whether to generate source maps for processed resources
+ *       (not for precompiled ones).</dd>
+ *   <dt>{@code compiled_cache}</dt>
+ *   <dd><em>(Optional)</em> A directory where compiled resources are persisted, and loaded from when
+ *       first requested (or when warming up); it can be shared by several nodes.</dd>
+ *   <dt>{@code compiled_store.class}</dt>
+ *   <dd><em>(Optional)</em> The class name of a {@link CompiledAssetStore} to use instead of the
+ *       {@code compiled_cache} directory, configured with all other {@code compiled_store.*} values.</dd>
+ *   <dt>{@code manifest}</dt>
+ *   <dd><em>(Optional)</em> The {@value Manifest#FILE_NAME} file of a tree precompiled by {@link AssetsBuilder};
+ *       when specified nothing is processed at runtime, and no <em>JavaScript</em> engine is ever used.</dd>
+ *   <dt>{@code warmup}</dt>
+ *   <dd><em>(Default: {@code false})</em> Whether to compile all processable resources at startup.</dd>
+ *   <dt>{@code warmup_parallelism}</dt>
+ *   <dd><em>(Default: number of processors)</em> How many resources to compile concurrently when warming up.</dd>
+ *   <dt>{@code warmup_wait}</dt>
+ *   <dd><em>(Default: {@code 0})</em> A {@link Duration} to wait for warming up to finish at construction.</dd>
  * </dl>
  *
  * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
  */
 @Path("/")
 @Singleton
-public class ServeResource {
+public class ServeResource implements Closeable {
 
-    private static final Response NOT_FOUND = Response.status(Status.NOT_FOUND).build();
+    /* Fingerprints are the first few characters of the content hash */
+    private static final int FINGERPRINT_LENGTH = 10;
+    private static final Pattern FINGERPRINTED = Pattern.compile("^(.+?)\\.([0-9a-f]{" + FINGERPRINT_LENGTH + "})(\\.[^./]+)?$");
 
-    private final MediaType jsonMediaType;
-    private final MediaType styleMediaType;
-    private final MediaType scriptMediaType;
+    /* Don't retry failed background rebuilds more often than this */
+    private static final Duration REVALIDATE_BACKOFF = Duration.ofSeconds(5);
 
     private final Log xlog = new Log();
 
-    private final JsonFactory json;
-    private final LessCSS lxess = new LessCSS();
-    private final UglifyJS uglify = new UglifyJS();
+    private final AssetCompiler compiler;
+    private final CompiledCache compiledCache;
+    private final Manifest manifest;
 
-    private final ConcurrentMap<Resource, Entry> cache = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Resource> routes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<File, Set<Resource>> dependents = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Resource, CompletableFuture<Entry>> compiling = new ConcurrentHashMap<>();
+    private final Set<Resource> revalidating = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Resource, Long> failures = new ConcurrentHashMap<>();
+    private final ResourceCache cache;
 
-    private final KeyedExecutor<String> executor;
+    private final KeyedExecutor<Object> executor;
+    private final ExecutorService executorService;
+    private final AtomicBoolean closed = new AtomicBoolean();
     private final ResourceManager manager;
-    private final boolean minify;
     private final Charset charset;
-    private final String charsetName;
-    private final Duration cacheDuration;
-    private final CacheControl cacheControl;
+    private final EntryResponder responder;
+    private final List<ContentEncoder> encoders;
+    private final Warmup warmup;
+    private final boolean staleWhileRevalidate;
+    private final boolean sourceMaps;
 
     /**
      * Create a new {@link ServeResource} instance with the specified
@@ -112,48 +231,53 @@ public class ServeResource {
     @Inject
     public ServeResource(Configurations configurations)
     throws IOException {
-        charset = Charset.forName(configurations.get("charset", UTF8.name()));
-        charsetName = charset.name();
-
-        manager = new ResourceManager(configurations.requireFile("root_path"), charset);
-
-        minify = configurations.get("minify", false);
-
-        cacheDuration = configurations.get("cache", Duration.ZERO);
-        cacheControl = new CacheControl();
-        cacheControl.setMaxAge((int) cacheDuration.getSeconds());
-        cacheControl.setNoCache(Duration.ZERO.equals(cacheDuration));
-
-        jsonMediaType = new MediaType("application", "json").withCharset(charsetName);
-        styleMediaType = new MediaType("text", "css").withCharset(charsetName);
-        scriptMediaType = new MediaType("application", "javascript").withCharset(charsetName);
-
-        executor = new KeyedExecutor<String>(SimpleExecutorProvider.create(configurations.strip("executor")));
-
-        /* Our Json factory, able to read all sorts of weird schtuff */
-        json = new JsonFactory()
-                /* Factory features */
-                .disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES)
-                .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
-                /* Parser features */
-                .enable(JsonParser.Feature.ALLOW_BACKSLASH_ESCAPING_ANY_CHARACTER)
-                .enable(JsonParser.Feature.ALLOW_COMMENTS)
-                .enable(JsonParser.Feature.ALLOW_NUMERIC_LEADING_ZEROS)
-                .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
-                .enable(JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS)
-                .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES)
-                .disable(JsonParser.Feature.ALLOW_NON_NUMERIC_NUMBERS)
-                .disable(JsonParser.Feature.ALLOW_YAML_COMMENTS)
-                .disable(JsonParser.Feature.STRICT_DUPLICATE_DETECTION)
-                /* Generator features */
-                .disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT)
-                .enable(JsonGenerator.Feature.ESCAPE_NON_ASCII)
-                .enable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
-                .enable(JsonGenerator.Feature.QUOTE_FIELD_NAMES)
-                .enable(JsonGenerator.Feature.WRITE_BIGDECIMAL_AS_PLAIN)
-                .disable(JsonGenerator.Feature.QUOTE_NON_NUMERIC_NUMBERS)
-                .disable(JsonGenerator.Feature.STRICT_DUPLICATE_DETECTION)
-                .disable(JsonGenerator.Feature.WRITE_NUMBERS_AS_STRINGS);
+        manager = new ResourceManager(configurations);
+        charset = manager.getDefaultCharset();
+
+        compiler = new AssetCompiler(charset, configurations.get("minify", false),
+                                     configurations.get("engines", Runtime.getRuntime().availableProcessors()),
+                                     ScriptBackends.from(configurations));
+
+        /* Precompiled assets? Read up our manifest */
+        final File manifestFile = configurations.getFile("manifest");
+        manifest = manifestFile == null ? null : Manifest.read(manifestFile);
+
+        responder = new EntryResponder(configurations.get("cache", Duration.ZERO));
+
+        cache = new ResourceCache(configurations.get("cache_size", 64L * 1024 * 1024));
+        staleWhileRevalidate = configurations.get("stale_while_revalidate", false);
+        sourceMaps = configurations.get("source_maps", false);
+
+        /* Compiled outputs kept across restarts (and maybe shared) */
+        final CompiledAssetStore store = manifest == null ? store(configurations) : null;
+        compiledCache = store == null ? null : new CompiledCache(store, compiler.options() + ",source_maps=" + sourceMaps);
+
+        encoders = configurations.get("compress", true) ?
+                       ContentEncoders.available(this.getClass().getClassLoader()) :
+                       Collections.emptyList();
+
+        executorService = SimpleExecutorProvider.create(configurations.strip("executor"));
+        executor = new KeyedExecutor<Object>(executorService);
+
+        /* Rebuild what depends on changed files */
+        manager.addChangeListener(this::changed);
+
+        /* Compile everything we can at startup, if we were asked to */
+        if (configurations.get("warmup", false)) {
+            warmup = new Warmup(manager, this::processable, (resource) -> () -> warm(resource), executor,
+                                configurations.get("warmup_parallelism", Runtime.getRuntime().availableProcessors()));
+            warmup.start();
+
+            final Duration wait = configurations.get("warmup_wait", Duration.ZERO);
+            if (! wait.isZero()) try {
+                if (! warmup.await(wait)) xlog.warn("Warmup not finished after %s: %s", wait, warmup);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted waiting for warmup", exception);
+            }
+        } else {
+            warmup = null;
+        }
     }
 
     /**
@@ -161,8 +285,23 @@ public class ServeResource {
      */
     @GET
     @Path("{resource:.*}")
-    public void serve(@Suspended AsyncResponse asyncResponse, @PathParam("resource") String path) {
-        final NotifyingFuture<Response> future;
+    public void serve(@Suspended AsyncResponse asyncResponse,
+                      @Context Request request,
+                      @Context HttpHeaders headers,
+                      @PathParam("resource") String path) {
+
+        /* The encoding we'll choose will depend on these headers */
+        final MultivaluedMap<String, String> requestHeaders = headers.getRequestHeaders();
+
+        /* Valid cache entry or known 404? Answer straight away */
+        final Response immediate = immediate(request, requestHeaders, path);
+        if (immediate != null) {
+            xlog.trace("\"%s\": Immediate response for AsyncResponse %s", path, asyncResponse);
+            asyncResponse.resume(immediate);
+            return;
+        }
+
+        final NotifyingFuture<Produced> future;
         try {
             /* Schedule our request generation */
             future = executor.call(path, () -> produce(path));
@@ -182,19 +321,19 @@ public class ServeResource {
         }
 
         /* Notify us of completion */
-        future.withConsumer((responseFuture) -> {
+        future.withConsumer((producedFuture) -> {
             try {
-                /* Get a hold on the shared response to duplicate */
-                final Response sharedResponse = responseFuture.get();
-
                 /* ===================  SUPER  IMPORTANT  =================== *
-                 * Always clone the response *ALWAYS*... This is not because  *
-                 * of the potential NOT_FOUND shared above, but Jersey keeps  *
-                 * something in the Response itself, and submitting the same  *
-                 * instance multiple times to different AsyncRespons(e) makes *
-                 * the whole thing fail (Grizzly gets confused on streams)... *
+                 * Never share Response instances... Jersey keeps something   *
+                 * in the Response itself, and submitting the same instance   *
+                 * multiple times to different AsyncRespons(e) makes the      *
+                 * whole thing fail (Grizzly gets confused on streams)... So  *
+                 * futures only carry entries, and responses are built here.  *
                  * ===================  super  important  =================== */
-                final Response response = Response.fromResponse(sharedResponse).build();
+                final Produced produced = producedFuture.get();
+                final Response response = produced == null ?
+                        Response.status(Status.NOT_FOUND).build() :
+                        responder.respond(request, requestHeaders, produced.path, produced.entry, produced.immutable);
 
                 /* Complete the response */
                 asyncResponse.resume(response);
@@ -208,132 +347,402 @@ public class ServeResource {
         });
     }
 
+    /**
+     * Return the {@link ResourceCache} used by this instance.
+     */
+    public ResourceCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Return the {@link CompiledCache} persisting the resources compiled by
+     * this instance, or {@code null} if no store was configured.
+     */
+    public CompiledCache getCompiledCache() {
+        return compiledCache;
+    }
+
+    /* Our infrastructure, shared with the ComboResource */
+
+    ResourceManager getResourceManager() {
+        return manager;
+    }
+
+    AssetCompiler getCompiler() {
+        return compiler;
+    }
+
+    EntryResponder getResponder() {
+        return responder;
+    }
+
+    List<ContentEncoder> getEncoders() {
+        return encoders;
+    }
+
+    KeyedExecutor<Object> getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Return the <em>fingerprinted</em> version of the specified path, for
+     * example {@code css/app.0123456789.css} for {@code css/app.css}, or the
+     * path unchanged if no such resource exists.
+     * <p>
+     * The fingerprint is derived from the (processed) content of the
+     * resource, so the returned path changes whenever its content does and
+     * can be cached forever.
+     */
+    public String fingerprint(String path)
+    throws IOException {
+        final Resource resource = resolve(path);
+        if (resource == null) return path;
+
+        /* Precompiled assets have their hashes in the manifest */
+        final Manifest.Asset asset = manifest == null ? null : manifest.get(resource.getPath());
+        final String hash = asset != null ? asset.hash : lookup(resource).identity.etag.getValue();
+
+        /* Insert the fingerprint before the extension (if any) */
+        final String fingerprint = hash.substring(0, FINGERPRINT_LENGTH);
+        final int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf('/') + 1) return path + "." + fingerprint;
+        return path.substring(0, dot) + "." + fingerprint + path.substring(dot);
+    }
+
+    /**
+     * Return the {@link Warmup} of this instance, tracking progress and
+     * timing, or {@code null} if warming up was not configured.
+     */
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * Check whether this instance is ready, that is, whether warming up
+     * (if configured) has finished.
+     */
+    public boolean isReady() {
+        return (warmup == null) || warmup.isDone();
+    }
+
+    /**
+     * Stop warming up and watching for changes in the resources served by
+     * this instance, shut down its executor and drop all its
+     * <em>LessCSS</em> and <em>UglifyJS</em> engines.
+     */
+    @Override
+    @PreDestroy
+    public void close() {
+        if (! closed.compareAndSet(false, true)) return;
+        if (warmup != null) warmup.stop();
+        executorService.shutdown();
+        compiler.close();
+        manager.close();
+        xlog.debug("Closed resources in \"%s\"", manager.getRootPath());
+    }
+
     /* ====================================================================== */
 
-    /* Deferred proces to create a Response from a path */
-    private Response produce(String path)
+    /* Answer from memory (on the calling thread), or null to go async */
+    private Response immediate(Request request, MultivaluedMap<String, String> headers, String path) {
+        if ((path == null) || (path.length() == 0)) return Response.status(Status.NOT_FOUND).build();
+
+        /* Do we know about this path, and is its entry still valid? */
+        final Resource resource = routes.get(path);
+        if (resource != null) {
+            final Entry entry = current(resource);
+            return entry == null ? null : responder.respond(request, headers, path, entry, false);
+        }
+
+        /* Do we know this path is missing (without looking at the disk)? */
+        if (! manager.isMissing(path)) return null;
+        if (path.endsWith(".css") && (! manager.isMissing(path.substring(0, path.length() - 4) + ".less"))) return null;
+        if (FINGERPRINTED.matcher(path).matches()) return null;
+        if (sourceMaps && path.endsWith(".map")) return null;
+        return Response.status(Status.NOT_FOUND).build();
+    }
+
+    /* Deferred process to find what to respond with for a path (null for 404) */
+    private Produced produce(String path)
     throws Exception {
 
         /* Basic check for null/empty path */
-        if ((path == null) || (path.length() == 0)) return NOT_FOUND;
+        if ((path == null) || (path.length() == 0)) return null;
+
+        /* Not a file? Might be the source map of a processed resource */
+        if (sourceMaps && path.endsWith(".map") && (resolve(path) == null)) {
+            return produce(path.substring(0, path.length() - 4), true);
+        }
+
+        return produce(path, false);
+    }
+
+    /* Find the entry for a resource, or for its source map */
+    private Produced produce(String path, boolean map)
+    throws Exception {
 
         /* Get our resource file, potentially a ".less" file for CSS */
-        Resource resource = manager.getResource(path);
-        if ((resource == null) && path.endsWith(".css")) {
-            path = path.substring(0, path.length() - 4) + ".less";
-            resource = manager.getResource(path);
+        Resource resource = resolve(path);
+
+        /* Not found? Might be a fingerprinted path */
+        String fingerprint = null;
+        if (resource == null) {
+            final Matcher matcher = FINGERPRINTED.matcher(path);
+            if (matcher.matches()) {
+                fingerprint = matcher.group(2);
+                resource = resolve(matcher.group(1) + (matcher.group(3) == null ? "" : matcher.group(3)));
+            }
         }
 
         /* If the root is incorrect, log this, if not found, 404 it! */
-        if (resource == null) return NOT_FOUND;
+        if (resource == null) {
+            /* Forget about anything we might have cached for this path */
+            final Resource removed = routes.remove(path);
+            if (removed != null) cache.remove(removed);
+            return null;
+        }
 
         /* Ok, we have a resource on disk, this can be potentially long ... */
-        final String fileName = resource.getFile().getName();
+        final Entry cached = lookup(resource);
 
-        /* Check and validated our cache */
-        Entry cached = cache.computeIfPresent(resource,
-                (r, entry) -> entry.resource.hasChanged() ? null : entry);
+        /* Outdated fingerprints still get the current content, just not forever */
+        final boolean immutable = (fingerprint != null) && cached.identity.etag.getValue().startsWith(fingerprint);
 
-        /* If we have no cache, we *might* want to cache something */
-        if (cached == null) {
+        /* Source maps only exist for processed resources */
+        if (map) return cached.sourceMap == null ? null : new Produced(null, cached.sourceMap, immutable);
 
-            /* What to do, what to do? */
-            if ((fileName.endsWith(".css") && minify) || fileName.endsWith(".less")) {
+        /* Remember canonical paths (not aliases), for answering immediately */
+        if (path.equals(resource.getPath())) routes.put(path, resource);
+        return new Produced(path, cached, immutable);
+    }
 
-                /* Lessify CSS and cache */
-                xlog.debug("Lessifying resource \"%s\"", fileName);
-                cached = new Entry(resource,
-                                   lxess.convert(resource, minify),
-                                   styleMediaType);
+    /* Resolve a path into a resource, potentially a ".less" file for CSS */
+    private Resource resolve(String path) {
+        final Resource resource = manager.getResource(path);
+        if ((resource != null) || (! path.endsWith(".css"))) return resource;
+        return manager.getResource(path.substring(0, path.length() - 4) + ".less");
+    }
 
-            } else if (fileName.endsWith(".js") && minify) {
+    /* Return the valid cached entry for a resource, compiling it if needed */
+    private Entry lookup(Resource resource)
+    throws IOException {
+        final Entry cached = current(resource);
+        return cached != null ? cached : compileOnce(resource);
+    }
 
-                /* Uglify JavaScript and cache */
-                xlog.debug("Uglifying resource \"%s\"", fileName);
-                cached = new Entry(resource,
-                                   uglify.convert(resource.readString(), minify, minify),
-                                   scriptMediaType);
+    /* Return the entry to serve from the cache (maybe stale, while rebuilding) */
+    private Entry current(Resource resource) {
+        final Entry entry = cache.get(resource, staleWhileRevalidate);
+        if ((entry != null) && staleWhileRevalidate && (! entry.isValid())) revalidate(resource, false);
+        return entry;
+    }
 
-            } else if (fileName.endsWith(".json")) {
+    /* Rebuild a stale entry in the background, keeping the last good one on failure */
+    private void revalidate(Resource resource, boolean force) {
+        /* Failed recently? Don't hammer the compiler at every request */
+        final Long failedAt = failures.get(resource);
+        if ((! force) && (failedAt != null) && ((System.nanoTime() - failedAt) < REVALIDATE_BACKOFF.toNanos())) return;
 
-                /* Strip comments and normalize JSON */
-                xlog.debug("Normalizing JSON resource \"%s\"", fileName);
+        /* Already rebuilding? Nothing to do */
+        if (! revalidating.add(resource)) return;
 
-                /* All to do with Jackson */
-                final Reader reader = resource.read();
-                final StringWriter writer = new StringWriter();
-                final JsonParser parser = json.createParser(reader);
-                final JsonGenerator generator = json.createGenerator(writer);
+        xlog.debug("Revalidating \"%s\" in the background", resource.getPath());
+        try {
+            executor.call(resource.getPath(), () -> {
+                /* Gone? Stop serving it, and 404 from now on */
+                if (! resource.getFile().isFile()) return cache.remove(resource);
+                return compileOnce(resource);
+            }).withConsumer((future) -> {
+                revalidating.remove(resource);
+                try {
+                    future.get();
+                    failures.remove(resource);
+                } catch (Exception exception) {
+                    failures.put(resource, System.nanoTime());
+                    xlog.warn(exception, "Unable to rebuild \"%s\", serving last good output", resource.getPath());
+                }
+            });
+        } catch (RejectedExecutionException exception) {
+            revalidating.remove(resource);
+            xlog.debug("Not revalidating \"%s\", executor is busy", resource.getPath());
+        }
+    }
 
-                /* Not minifying? Means pretty printing! */
-                if (!minify) generator.useDefaultPrettyPrinter();
+    /* Compile and cache once at a time for any alias, request or revalidation */
+    private Entry compileOnce(Resource resource)
+    throws IOException {
+        final CompletableFuture<Entry> future = new CompletableFuture<>();
+        final CompletableFuture<Entry> inflight = compiling.putIfAbsent(resource, future);
+        if (inflight != null) {
+            xlog.trace("Waiting for in-flight compilation of \"%s\"", resource.getPath());
+            return await(inflight);
+        }
 
-                /* Get our schtuff through the pipeline */
-                parser.nextToken();
-                generator.copyCurrentStructure(parser);
-                generator.flush();
-                generator.close();
-                reader.close();
-                parser.close();
+        try {
+            /* Someone might have just finished (peek, keeping stale entries) */
+            Entry entry = cache.peek(resource);
+            if ((entry == null) || (! entry.isValid())) entry = cache(compile(resource));
+            future.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException | Error exception) {
+            future.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            compiling.remove(resource, future);
+        }
+    }
 
-                /* Cached results... */
-                cached = new Entry(resource, writer.toString(), jsonMediaType);
+    /* Wait for someone else's compilation, rethrowing its failures */
+    private Entry await(CompletableFuture<Entry> future)
+    throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for compilation", exception);
+        } catch (ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException("Exception compiling", cause);
+        }
+    }
 
+    /* Process a resource into a new cache entry */
+    private Entry compile(Resource resource)
+    throws IOException {
+        final String fileName = resource.getFile().getName();
+
+        /* Precompiled? Never process anything, just trust the manifest */
+        if (manifest != null) {
+            final Manifest.Asset asset = manifest.get(resource.getPath());
+            final MediaType type = asset == null ? compiler.type(fileName) : MediaType.valueOf(asset.type);
+            if ((asset != null) && asset.processed) {
+                xlog.debug("Loading precompiled resource \"%s\"", fileName);
+                return new Entry(new Resources(resource), type, resource.readBytes(), encoders);
             }
 
-            /* Do we have anything to cache? */
-            if (cached != null) {
-                xlog.debug("Caching resource \"%s\"", fileName);
-                cache.put(resource, cached);
+            xlog.debug("Hashing file-based resource \"%s\"", fileName);
+            return new Entry(resource, type);
+        }
+
+        /* Lessify, uglify or normalize, remembering all imported resources */
+        if (compiler.processable(fileName)) {
+
+            /* Compiled already, maybe before a restart? */
+            if (compiledCache != null) {
+                final Entry stored = compiledCache.load(resource, encoders);
+                if (stored != null) return stored;
             }
+
+            final Resources resources = new Resources(resource);
+            final AtomicReference<String> sourceMap = new AtomicReference<>();
+            final String contents = compiler.compile(resources, sourceMaps ? sourceMap::set : null);
+            final Entry entry = entry(resources, compiler.type(fileName), contents, sourceMap.get());
+            if (compiledCache != null) compiledCache.store(entry);
+            return entry;
         }
 
-        /* Prepare our basic response from either cache or file */
-        final ResponseBuilder response = Response.ok();
-        if (cached != null) {
+        /* Static file, we only remember its type and content hash */
+        xlog.debug("Hashing file-based resource \"%s\"", fileName);
+        return new Entry(resource, compiler.type(fileName));
+    }
 
-            /* Response from cache */
-            xlog.trace("Serving cached resource \"%s\"", fileName);
-            response.entity(cached.contents)
-                    .lastModified(new Date(resource.lastModifiedAt()))
-                    .type(cached.type);
-        } else {
+    /* Create the configured store for compiled resources, if any */
+    private static CompiledAssetStore store(Configurations configurations) {
+        final File directory = configurations.getFile("compiled_cache");
+        if (directory != null) return new DirectoryAssetStore(directory);
 
-            /* Response from a file */
-            xlog.trace("Serving file-based resource \"%s\"", fileName);
+        final Configurations storeConfigurations = configurations.strip("compiled_store");
+        final String className = storeConfigurations.get("class", (String) null);
+        if (className == null) return null;
 
-            /* If text/* or application/javascript, append encoding */
-            MediaType type = MediaTypes.get(fileName);
-            if (type.getType().equals("text") || scriptMediaType.isCompatible(type)) {
-                type = type.withCharset(charsetName);
-            }
+        try {
+            return Class.forName(className, true, ServeResource.class.getClassLoader())
+                        .asSubclass(CompiledAssetStore.class)
+                        .getConstructor(Configurations.class)
+                        .newInstance(storeConfigurations);
+        } catch (ReflectiveOperationException | ClassCastException exception) {
+            throw new IllegalArgumentException("Unable to create compiled asset store " + className, exception);
+        }
+    }
+
+    /* Check whether a resource requires processing (when warming up) */
+    private boolean processable(Resource resource) {
+        if (manifest == null) return compiler.processable(resource.getFile().getName());
+        final Manifest.Asset asset = manifest.get(resource.getPath());
+        return (asset != null) && asset.processed;
+    }
 
-            /* Our file is served! */
-            response.entity(resource.getFile())
-                    .lastModified(new Date(resource.lastModifiedAt()))
-                    .type(type);
+    /* Compile and cache a resource (if not already cached) when warming up */
+    private Entry warm(Resource resource)
+    throws IOException {
+        final Entry cached = lookup(resource);
+        routes.putIfAbsent(resource.getPath(), resource);
+        return cached;
+    }
+
+    /* Cache an entry, indexing all the resources it depends on */
+    private Entry cache(Entry entry) {
+        xlog.debug("Caching resource \"%s\"", entry.resource.getFile().getName());
+        for (Resource dependency: entry.resources.subResources()) {
+            dependents.computeIfAbsent(dependency.getFile(), (file) -> ConcurrentHashMap.newKeySet())
+                      .add(entry.resource);
         }
+        cache.put(entry);
+        return entry;
+    }
 
-        /* Caching headers and build response */
-        final Date expires = Date.from(Instant.now().plus(cacheDuration));
-        return response.cacheControl(cacheControl)
-                       .expires(expires)
-                       .build();
+    /* Notified by our manager when a file changes: rebuild dependents */
+    private void changed(File file) {
+        final Set<Resource> roots = dependents.get(file);
+        if (roots == null) return;
+
+        for (Resource root: roots) {
+            /* Keep serving processed entries while rebuilding, if we can */
+            final Entry entry = cache.peek(root);
+            if (staleWhileRevalidate && (entry != null) && entry.isProcessed()) {
+                revalidate(root, true);
+                continue;
+            }
+
+            /* Only rebuild what's actually cached */
+            if (cache.remove(root) == null) continue;
+
+            xlog.debug("Rebuilding \"%s\" after \"%s\" changed", root.getPath(), file);
+            try {
+                executor.call(root.getPath(), () -> lookup(root)).withConsumer((future) -> {
+                    try {
+                        future.get();
+                    } catch (Exception exception) {
+                        xlog.warn(exception, "Unable to rebuild \"%s\"", root.getPath());
+                    }
+                });
+            } catch (RejectedExecutionException exception) {
+                xlog.debug("Not rebuilding \"%s\", executor is busy", root.getPath());
+            }
+        }
+    }
 
+    /* Create a new cache entry for a processed resource */
+    private Entry entry(Resources resources, MediaType type, String contents, String sourceMap) {
+        return new Entry(resources, type, contents.getBytes(charset), sourceMap == null ? null : sourceMap.getBytes(UTF8), encoders);
     }
 
     /* ====================================================================== */
 
-    private final class Entry {
+    /* What a deferred process found: an entry, and how to respond with it */
+    private static final class Produced {
 
-        private final Resource resource;
-        private final String contents;
-        private final MediaType type;
+        private final String path;
+        private final Entry entry;
+        private final boolean immutable;
 
-        private Entry(Resource resource, String contents, MediaType type) {
-            this.resource = notNull(resource);
-            this.contents = notNull(contents);
-            this.type = notNull(type);
+        private Produced(String path, Entry entry, boolean immutable) {
+            this.path = path;
+            this.entry = entry;
+            this.immutable = immutable;
         }
     }
 }
@@ -0,0 +1,221 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.usrz.libs.logging.Log;
+import org.usrz.libs.utils.concurrent.KeyedExecutor;
+
+/**
+ * The <em>warm-up</em> phase of a {@link ServeResource}, processing in
+ * parallel all the resources that would require compilation before they
+ * are requested for the first time.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public final class Warmup {
+
+    private final Log log = new Log();
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final ResourceManager manager;
+    private final Predicate<Resource> processable;
+    private final Function<Resource, Callable<?>> task;
+    private final KeyedExecutor<Object> executor;
+    private final Semaphore permits;
+
+    private volatile Thread thread = null;
+    private volatile int total = -1;
+    private volatile long startedAt = -1;
+    private volatile long finishedAt = -1;
+
+    Warmup(ResourceManager manager,
+           Predicate<Resource> processable,
+           Function<Resource, Callable<?>> task,
+           KeyedExecutor<Object> executor,
+           int parallelism) {
+        this.manager = notNull(manager, "Null manager");
+        this.processable = notNull(processable, "Null processable predicate");
+        this.task = notNull(task, "Null task");
+        this.executor = notNull(executor, "Null executor");
+        if (parallelism < 1) throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        permits = new Semaphore(parallelism);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the total number of resources to process, or {@code -1} if
+     * those are still being discovered.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Return the number of resources successfully processed so far.
+     */
+    public int getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * Return the number of resources which failed processing so far.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Return the time spent warming up so far (or in total, when done).
+     */
+    public Duration getElapsed() {
+        if (startedAt < 0) return Duration.ZERO;
+        final long end = finishedAt < 0 ? System.nanoTime() : finishedAt;
+        return Duration.ofNanos(end - startedAt);
+    }
+
+    /**
+     * Check whether warming up has finished.
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Wait up to the specified {@link Duration} for warming up to finish.
+     *
+     * @return {@code true} if warming up finished, {@code false} otherwise.
+     */
+    public boolean await(Duration timeout)
+    throws InterruptedException {
+        return done.await(timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[total=" + total
+                                         + ",completed=" + getCompleted()
+                                         + ",failed=" + getFailed()
+                                         + ",elapsed=" + getElapsed()
+                                         + ",done=" + isDone()
+                                         + "]";
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Start warming up in a background thread.
+     */
+    void start() {
+        thread = new Thread(this::run, "Warmup[" + manager.getRootPath() + "]");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop warming up, if still submitting resources.
+     */
+    void stop() {
+        final Thread thread = this.thread;
+        if (thread != null) thread.interrupt();
+    }
+
+    private void run() {
+        startedAt = System.nanoTime();
+        try {
+            /* Find all the resources that need processing */
+            final List<Resource> resources;
+            try (Stream<Path> stream = Files.walk(manager.getRootPath().toPath())) {
+                resources = stream.filter(Files::isRegularFile)
+                                  .map((path) -> manager.getResource(path.toFile()))
+                                  .filter((resource) -> (resource != null) && processable.test(resource))
+                                  .collect(Collectors.toList());
+            }
+
+            total = resources.size();
+            log.info("Warming up %d resources in \"%s\"", total, manager.getRootPath());
+            if (total == 0) finish();
+
+            /* Submit them all, but only a few at a time */
+            for (Resource resource: resources) {
+                permits.acquire();
+                submit(resource);
+            }
+
+        } catch (InterruptedException exception) {
+            log.warn("Interrupted warming up \"%s\"", manager.getRootPath());
+            finish();
+        } catch (IOException | RuntimeException exception) {
+            log.error(exception, "Error warming up \"%s\"", manager.getRootPath());
+            finish();
+        }
+    }
+
+    private void submit(Resource resource)
+    throws InterruptedException {
+        while (true) try {
+            executor.call(resource.getPath(), task.apply(resource)).withConsumer((future) -> {
+                try {
+                    future.get();
+                    processed(true);
+                } catch (Exception exception) {
+                    log.warn(exception, "Unable to warm up \"%s\"", resource.getPath());
+                    processed(false);
+                }
+            });
+            return;
+        } catch (RejectedExecutionException exception) {
+            /* Executor queue is full, retry in a bit */
+            Thread.sleep(50);
+        }
+    }
+
+    private void processed(boolean successful) {
+        permits.release();
+        if (successful) completed.incrementAndGet();
+        else failed.incrementAndGet();
+        if ((completed.get() + failed.get()) == total) finish();
+    }
+
+    private synchronized void finish() {
+        if (isDone()) return;
+        finishedAt = System.nanoTime();
+        done.countDown();
+        log.info("Warmed up %d resources (%d failed) in %d ms",
+                 getCompleted(), getFailed(), getElapsed().toMillis());
+    }
+}
@@ -15,59 +15,64 @@
  * ========================================================================== */
 package org.usrz.libs.webtools.uglifyjs;
 
-import static org.usrz.libs.utils.Charsets.UTF8;
+import static org.usrz.libs.utils.Check.notNull;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
-import javax.script.Invocable;
 import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
 
 import org.usrz.libs.logging.Log;
 import org.usrz.libs.logging.Logging;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
+import org.usrz.libs.webtools.utils.ScriptLibrary;
 
 /**
  * A simple wrapper for <a href="https://github.com/mishoo/UglifyJS2">UglifyJS
  * 2.x</a>.
+ * <p>
+ * Instances are not thread-safe (see {@link UglifyJSPool}), but they are
+ * cheap to create: the <em>UglifyJS</em> scripts are compiled only once, and
+ * each instance simply evaluates them in its own {@link ScriptContext}.
  *
  * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
  */
 public class UglifyJS {
 
-    private static final String ENGINE_TYPE = "application/javascript";
-    private static final String UGLIFY_RESOURCE = "uglifyjs-2.4.12.min.js";
+    /** The version of <em>UglifyJS</em> wrapped by this class. */
+    public static final String VERSION = "2.4.12";
+
+    private static final String UGLIFY_RESOURCE = "uglifyjs-" + VERSION + ".min.js";
     private static final String ADAPTER_RESOURCE = "uglifyjs-adapter.js";
+    private static final String SOURCE_MAP_RESOURCE = "/org/usrz/libs/webtools/utils/source-map.js";
+
+    /* Our scripts, compiled once per backend and shared by all instances */
+    private static final Map<ScriptBackend, ScriptLibrary> LIBRARIES = new HashMap<>();
 
-    private final ScriptEngineManager manager = new ScriptEngineManager(this.getClass().getClassLoader());
-    private final ScriptEngine engine = manager.getEngineByMimeType(ENGINE_TYPE);
-    private final Invocable invocable = (Invocable) engine;
+    private final ScriptLibrary scripts;
+    private final ScriptContext context;
 
     /**
-     * Create a new {@link UglifyJS} engine.
+     * Create a new {@link UglifyJS} engine with the
+     * {@linkplain ScriptBackends#DEFAULT default} {@link ScriptBackend}.
      */
     public UglifyJS() {
+        this(ScriptBackends.DEFAULT);
+    }
+
+    /**
+     * Create a new {@link UglifyJS} engine with the specified {@link ScriptBackend}.
+     */
+    public UglifyJS(ScriptBackend backend) {
         Logging.init();
         try {
-            engine.put(ScriptEngine.FILENAME, UGLIFY_RESOURCE);
-            final InputStream uglifyInput = this.getClass().getResourceAsStream(UGLIFY_RESOURCE);
-            if (uglifyInput == null) throw new IOException("Resource " + UGLIFY_RESOURCE + " not found");
-            final InputStreamReader lessReader = new InputStreamReader(uglifyInput, UTF8);
-            engine.eval(lessReader);
-            lessReader.close();
-
-            engine.put(ScriptEngine.FILENAME, ADAPTER_RESOURCE);
-            final InputStream adapterInput = this.getClass().getResourceAsStream(ADAPTER_RESOURCE);
-            if (adapterInput == null) throw new IOException("Resource " + ADAPTER_RESOURCE + " not found");
-            final InputStreamReader adapterReader = new InputStreamReader(adapterInput, UTF8);
-            engine.eval(adapterReader);
-            adapterReader.close();
-
-            engine.getBindings(ScriptContext.GLOBAL_SCOPE).put("__logger", new Log());
+            scripts = library(backend);
+            context = scripts.newContext();
+            context.getBindings(ScriptContext.ENGINE_SCOPE).put("__logger", new Log());
         } catch (Exception exception) {
             throw new UglifyJSException("Unable to initialize UglifyJS2 engine", exception);
         }
@@ -77,15 +82,40 @@ public class UglifyJS {
      * Uglify the specified <em>JavaScript</em> source.
      */
     public String convert(String script, boolean compress, boolean mangle) {
+        return convert(script, null, compress, mangle, null);
+    }
+
+    /**
+     * Uglify the specified <em>JavaScript</em> source, writing its
+     * <em>source map</em> (if the {@link Consumer} is not {@code null}).
+     * <p>
+     * The file name (if any) is used to name the source in the source map,
+     * which will also embed the original source itself.
+     */
+    public String convert(String script, String fileName, boolean compress, boolean mangle, Consumer<String> sourceMap) {
         final Map<String, Object> options = new HashMap<>();
         options.put("compress", compress);
         options.put("mangle", mangle);
+        if (fileName != null) options.put("filename", fileName);
+        if (sourceMap != null) options.put("source_map", sourceMap);
 
         try {
-            return invocable.invokeFunction("_uglify_process", script, options).toString();
+            return scripts.invoke(context, "_uglify_process", script, options).toString();
         } catch (Exception exception) {
             throw new UglifyJSException("Unable to uglify script", exception);
         }
     }
 
+    /* ====================================================================== */
+
+    /* Compile our scripts when the first instance (per backend) is created */
+    private static synchronized ScriptLibrary library(ScriptBackend backend)
+    throws IOException, ScriptException {
+        final ScriptLibrary library = LIBRARIES.get(notNull(backend, "Null backend"));
+        if (library != null) return library;
+
+        final ScriptLibrary created = new ScriptLibrary(backend, UglifyJS.class, UGLIFY_RESOURCE, SOURCE_MAP_RESOURCE, ADAPTER_RESOURCE);
+        LIBRARIES.put(backend, created);
+        return created;
+    }
 }
@@ -0,0 +1,132 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.uglifyjs;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.Closeable;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.usrz.libs.webtools.utils.EnginePool;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
+
+/**
+ * A thread-safe wrapper for <a href="https://github.com/mishoo/UglifyJS2">UglifyJS
+ * 2.x</a>, uglifying concurrently with a pool of {@link UglifyJS} engines.
+ * <p>
+ * Engines failing to uglify a script are discarded (and replaced) unless
+ * they can still uglify a trivial one.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public class UglifyJSPool implements Closeable {
+
+    private static final String HEALTH_CHECK_SCRIPT = "var health = 1 + 1;";
+    private static final String HEALTH_CHECK_RESULT = "health=";
+
+    private final EnginePool<UglifyJS> pool;
+
+    /**
+     * Create a new {@link UglifyJSPool} with as many engines as the number
+     * of available processors.
+     */
+    public UglifyJSPool() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a new {@link UglifyJSPool} with at most the specified number of
+     * engines.
+     */
+    public UglifyJSPool(int size) {
+        this(size, ScriptBackends.DEFAULT);
+    }
+
+    /**
+     * Create a new {@link UglifyJSPool} with at most the specified number of
+     * engines, using the specified {@link ScriptBackend}.
+     */
+    public UglifyJSPool(int size, ScriptBackend backend) {
+        notNull(backend, "Null backend");
+        pool = new EnginePool<>("UglifyJS", size, () -> new UglifyJS(backend), UglifyJSPool::healthy);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Uglify the specified <em>JavaScript</em> source.
+     *
+     * @see UglifyJS#convert(String, boolean, boolean)
+     */
+    public String convert(String script, boolean compress, boolean mangle) {
+        return convert(script, null, compress, mangle, null);
+    }
+
+    /**
+     * Uglify the specified <em>JavaScript</em> source, writing its
+     * <em>source map</em> (if the {@link Consumer} is not {@code null}).
+     *
+     * @see UglifyJS#convert(String, String, boolean, boolean, Consumer)
+     */
+    public String convert(String script, String fileName, boolean compress, boolean mangle, Consumer<String> sourceMap) {
+        return convert((uglify) -> uglify.convert(script, fileName, compress, mangle, sourceMap));
+    }
+
+    /**
+     * Return the {@link EnginePool} used by this instance, and its metrics.
+     */
+    public EnginePool<UglifyJS> getPool() {
+        return pool;
+    }
+
+    /**
+     * Close this instance, dropping all its engines.
+     */
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    /* ====================================================================== */
+
+    /* Borrow an engine, uglify, and give it back (checked, on failures) */
+    private String convert(Function<UglifyJS, String> conversion) {
+        final UglifyJS uglify;
+        try {
+            uglify = pool.borrow();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new UglifyJSException("Interrupted waiting for an UglifyJS2 engine", exception);
+        }
+
+        boolean failed = true;
+        try {
+            final String script = conversion.apply(uglify);
+            failed = false;
+            return script;
+        } finally {
+            pool.release(uglify, failed);
+        }
+    }
+
+    /* Our health check: can the engine still uglify something trivial? */
+    private static boolean healthy(UglifyJS uglify) {
+        final String script = uglify.convert(HEALTH_CHECK_SCRIPT, true, false);
+        return (script != null) && script.contains(HEALTH_CHECK_RESULT);
+    }
+}
@@ -5,7 +5,7 @@ var _uglify_process = function(input, optionsMap) {
   for (var key in optionsMap) options[key] = optionsMap[key];
 
   __logger.debug("Parsing script @%.0f", t);
-  var ast = UglifyJS.parse(input, {});
+  var ast = UglifyJS.parse(input, { filename: options['filename'] });
   ast.figure_out_scope();
   
   if (options['compress'] == true) {
@@ -20,6 +20,17 @@ var _uglify_process = function(input, optionsMap) {
     ast.mangle_names();
   }
   
+  /* Source map requested? Write it to our (Java) consumer */
+  if (options['source_map']) {
+    __logger.debug("Serializing script with source map @%.0f", t);
+    var map = UglifyJS.SourceMap({ file: options['filename'] });
+    map.get().setSourceContent(options['filename'], input);
+    var stream = UglifyJS.OutputStream({ source_map: map });
+    ast.print(stream);
+    options['source_map'].accept(map.toString());
+    return stream.toString();
+  }
+
   __logger.debug("Serializing script @%.0f", t);
   return ast.print_to_string({});
 };
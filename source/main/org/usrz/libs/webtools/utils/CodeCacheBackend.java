@@ -0,0 +1,137 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.utils;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * A {@link ScriptBackend} persisting the code compiled by <em>Nashorn</em>
+ * engines (created by another backend) in a directory, so that it can be
+ * reused after a restart.
+ * <p>
+ * Compiled code is kept in a sub-directory named after the key of the
+ * scripts compiled (a hash of their names and contents), so whenever any
+ * of them changes, new code is compiled (and persisted) from scratch.
+ * <p>
+ * The directory is passed to each engine in its own options (read once,
+ * when the engine is created), so that different backends can use
+ * different directories.
+ * <p>
+ * This has no effect whatsoever on engines other than <em>Nashorn</em>:
+ * those are simply created by the wrapped backend, and don't persist
+ * anything.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+final class CodeCacheBackend implements ScriptBackend {
+
+    /* Nashorn reads the directory from this property, which we pass as an option */
+    private static final String DIRECTORY_PROPERTY = "nashorn.persistent.code.cache";
+    private static final String PERSISTENT_OPTION = "--persistent-code-cache";
+
+    private final Log log = new Log();
+
+    private final ScriptBackend backend;
+    private final File directory;
+
+    CodeCacheBackend(ScriptBackend backend, File directory) {
+        this.backend = notNull(backend, "Null backend");
+        this.directory = notNull(directory, "Null directory").getAbsoluteFile();
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public ScriptEngine createEngine(ClassLoader classLoader)
+    throws ScriptException {
+        return backend.createEngine(classLoader);
+    }
+
+    @Override
+    public ScriptEngine createEngine(ClassLoader classLoader, String scripts)
+    throws ScriptException {
+        final ScriptEngine engine = backend.createEngine(classLoader, scripts);
+        final ScriptEngineFactory factory = engine.getFactory();
+        if (! factory.getNames().contains("nashorn")) {
+            log.debug("Engine %s can not persist compiled code", factory.getEngineName());
+            return engine;
+        }
+
+        final File cache = new File(directory, scripts);
+        if ((! cache.isDirectory()) && (! cache.mkdirs())) {
+            log.warn("Unable to create code cache directory \"%s\"", cache);
+            return engine;
+        }
+
+        /* Create a new engine, with our directory in its own options */
+        final String[] options = { PERSISTENT_OPTION, "-D" + DIRECTORY_PROPERTY + "=" + cache.getPath() };
+        synchronized (CodeCacheBackend.class) {
+            /* Nashorn copies "-D" options into the system properties: undo that */
+            final String previous = System.getProperty(DIRECTORY_PROPERTY);
+            try {
+                final ScriptEngine cached = (ScriptEngine) factory.getClass()
+                        .getMethod("getScriptEngine", String[].class, ClassLoader.class)
+                        .invoke(factory, options, classLoader);
+                log.debug("Persisting code compiled by %s in \"%s\"", factory.getEngineName(), cache);
+                return cached;
+            } catch (InvocationTargetException exception) {
+                log.warn(exception.getCause(), "Unable to create %s engine with code cache \"%s\"", factory.getEngineName(), cache);
+                return engine;
+            } catch (ReflectiveOperationException | ClassCastException exception) {
+                log.warn(exception, "Engine %s does not support code caches", factory.getEngineName());
+                return engine;
+            } finally {
+                if (previous == null) System.clearProperty(DIRECTORY_PROPERTY);
+                else System.setProperty(DIRECTORY_PROPERTY, previous);
+            }
+        }
+    }
+
+    @Override
+    public Bindings createBindings(ScriptEngine engine) {
+        return backend.createBindings(engine);
+    }
+
+    /* ====================================================================== */
+
+    @Override
+    public boolean equals(Object object) {
+        if (object == this) return true;
+        if (! (object instanceof CodeCacheBackend)) return false;
+        final CodeCacheBackend backend = (CodeCacheBackend) object;
+        return this.backend.equals(backend.backend) && directory.equals(backend.directory);
+    }
+
+    @Override
+    public int hashCode() {
+        return backend.hashCode() * 31 + directory.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[backend=" + backend + ",directory=" + directory + "]";
+    }
+}
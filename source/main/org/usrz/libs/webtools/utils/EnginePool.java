@@ -0,0 +1,294 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.utils;
+
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * A bounded pool of (non thread-safe) <em>engines</em>, like the
+ * <em>JavaScript</em> ones backing <em>LessCSS</em> and <em>UglifyJS</em>.
+ * <p>
+ * Engines are created lazily (up to the pool's size) when
+ * {@linkplain #borrow() borrowed}, and must always be
+ * {@linkplain #release(Object) released} after use. Callers exceeding the
+ * pool's size simply wait for an engine to be released (or discarded, when
+ * they will create its replacement).
+ * <p>
+ * Engines released after a failure are verified with the pool's
+ * <em>health check</em>, and discarded (to be replaced by a fresh one when
+ * next needed) if they don't pass it.
+ * <p>
+ * Once {@linkplain #close() closed}, pools drop all their idle engines (and
+ * any engine released afterwards), and refuse to lend any more.
+ * <p>
+ * Pools keep track of how long callers {@linkplain #getWaitTime() waited}
+ * for engines, and of their {@linkplain #getUtilization() utilization}, in
+ * order to help sizing them.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public class EnginePool<E> implements Closeable {
+
+    private final Log log = new Log();
+
+    private final BlockingDeque<E> idle = new LinkedBlockingDeque<>();
+    /* One permit for each engine that can be lent (idle or not yet created) */
+    private final Semaphore available;
+    private final AtomicInteger engines = new AtomicInteger();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private volatile boolean closed = false;
+
+    /* Engines in use, and their usage (in nanos) since we were created */
+    private final long started = System.nanoTime();
+    private long busyNanos = 0;
+    private long changed = started;
+    private int active = 0;
+
+    private final String name;
+    private final int size;
+    private final Supplier<E> factory;
+    private final Predicate<E> healthCheck;
+
+    /**
+     * Create a new {@link EnginePool} of at most the specified number of
+     * engines, created by the specified {@link Supplier} and verified (after
+     * failures) with the specified {@link Predicate}.
+     */
+    public EnginePool(String name, int size, Supplier<E> factory, Predicate<E> healthCheck) {
+        if (size < 1) throw new IllegalArgumentException("Invalid size " + size + " for " + name + " pool");
+        this.name = notNull(name, "Null name");
+        this.factory = notNull(factory, "Null factory");
+        this.healthCheck = notNull(healthCheck, "Null health check");
+        this.size = size;
+        available = new Semaphore(size, true);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Borrow an engine from this pool, creating a new one if none is idle
+     * and the pool is not full, or waiting for one to be released.
+     */
+    public E borrow()
+    throws InterruptedException {
+        final E engine = acquire();
+        borrowed.increment();
+        active(1);
+        return engine;
+    }
+
+    /**
+     * Release an engine after its successful use.
+     */
+    public void release(E engine) {
+        notNull(engine, "Null engine");
+        active(-1);
+        if (closed) engines.decrementAndGet();
+        else idle.offerFirst(engine);
+        available.release();
+    }
+
+    /**
+     * Release an engine after its use, discarding it if it
+     * {@code failed} and it does not pass the pool's health check.
+     */
+    public void release(E engine, boolean failed) {
+        if (failed && (! healthy(notNull(engine, "Null engine")))) {
+            active(-1);
+            engines.decrementAndGet();
+            discarded.increment();
+            available.release();
+            log.warn("Discarded unhealthy %s engine %s", name, engine);
+        } else {
+            release(engine);
+        }
+    }
+
+    /**
+     * Close this pool, dropping all idle engines, and refusing to lend any
+     * more of them.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (E engine = idle.pollFirst(); engine != null; engine = idle.pollFirst()) engines.decrementAndGet();
+        available.release(); /* Wakes up waiters, one after the other */
+        log.debug("Closed %s pool", name);
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Return the maximum number of engines in this pool.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Return the number of engines currently in this pool (in use or not).
+     */
+    public int getCreated() {
+        return engines.get();
+    }
+
+    /**
+     * Return the number of engines currently in use.
+     */
+    public synchronized int getActive() {
+        return active;
+    }
+
+    /**
+     * Return the number of engines currently idle in this pool.
+     */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /**
+     * Return the number of engines discarded (failing health checks) since
+     * this pool was created.
+     */
+    public long getDiscarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * Return the number of engines borrowed since this pool was created.
+     */
+    public long getBorrowed() {
+        return borrowed.sum();
+    }
+
+    /**
+     * Return the number of times callers had to wait for an engine to be
+     * released since this pool was created.
+     */
+    public long getWaited() {
+        return waited.sum();
+    }
+
+    /**
+     * Return the total time callers waited for engines to be released since
+     * this pool was created.
+     */
+    public Duration getWaitTime() {
+        return Duration.ofNanos(waitNanos.sum());
+    }
+
+    /**
+     * Return the utilization of this pool since it was created, the ratio
+     * between the time its engines were in use and the time all of them
+     * (as many as the pool's size) could have been.
+     */
+    public synchronized double getUtilization() {
+        final long now = System.nanoTime();
+        final long elapsed = (now - started) * size;
+        return elapsed == 0 ? 0 : (double) (busyNanos + (now - changed) * active) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getName() + "[name=" + name
+                                         + ",size=" + size
+                                         + ",created=" + engines.get()
+                                         + ",active=" + getActive()
+                                         + ",idle=" + idle.size()
+                                         + ",discarded=" + discarded.sum()
+                                         + ",borrowed=" + borrowed.sum()
+                                         + ",waited=" + waited.sum()
+                                         + ",waitTime=" + getWaitTime()
+                                         + ",utilization=" + String.format("%.3f", getUtilization())
+                                         + "]";
+    }
+
+    /* ====================================================================== */
+
+    /* Wait for an engine to be available, then get an idle one or create it */
+    private E acquire()
+    throws InterruptedException {
+        if (! available.tryAcquire()) {
+            final long waitStarted = System.nanoTime();
+            try {
+                available.acquire();
+            } finally {
+                waitNanos.add(System.nanoTime() - waitStarted);
+                waited.increment();
+            }
+        }
+
+        /* Closed while waiting? Pass the permit on to the next waiter */
+        if (closed) {
+            available.release();
+            throw new IllegalStateException(name + " pool closed");
+        }
+
+        /* With a permit, either an engine is idle or there's room for one */
+        final E engine = idle.pollFirst();
+        if (engine != null) return engine;
+        engines.incrementAndGet();
+        return create();
+    }
+
+    /* Account for engines borrowed (positive) or returned (negative) */
+    private synchronized void active(int delta) {
+        final long now = System.nanoTime();
+        busyNanos += (now - changed) * active;
+        changed = now;
+        active += delta;
+    }
+
+    /* Create a new engine, after its slot was reserved */
+    private E create() {
+        final long started = System.nanoTime();
+        try {
+            final E engine = notNull(factory.get(), "Null engine created");
+            log.debug("Created %s engine in %d ms", name, (System.nanoTime() - started) / 1000000);
+            return engine;
+        } catch (RuntimeException | Error throwable) {
+            engines.decrementAndGet();
+            available.release();
+            throw throwable;
+        }
+    }
+
+    /* Check the health of an engine, which fails on any exception */
+    private boolean healthy(E engine) {
+        try {
+            return healthCheck.test(engine);
+        } catch (RuntimeException exception) {
+            log.debug(exception, "Health check failed for %s engine %s", name, engine);
+            return false;
+        }
+    }
+}
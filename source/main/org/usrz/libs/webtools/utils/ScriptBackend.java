@@ -0,0 +1,70 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.utils;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+/**
+ * A <em>JavaScript</em> engine implementation (like <em>Nashorn</em> or
+ * <em>GraalJS</em>) used by {@link ScriptLibrary} to run <em>LessCSS</em>
+ * and <em>UglifyJS</em>.
+ * <p>
+ * Implementations must have a public no-argument constructor in order to
+ * be {@linkplain ScriptBackends#from(org.usrz.libs.configurations.Configurations)
+ * configured} by class name.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ * @see ScriptBackends
+ */
+public interface ScriptBackend {
+
+    /**
+     * Create a new {@link ScriptEngine}, able to load classes from the
+     * specified {@link ClassLoader}.
+     *
+     * @throws ScriptException If the engine is not available.
+     */
+    public ScriptEngine createEngine(ClassLoader classLoader)
+    throws ScriptException;
+
+    /**
+     * Create a new {@link ScriptEngine}, able to load classes from the
+     * specified {@link ClassLoader}, for compiling the scripts identified
+     * by the specified key (a hash of their names and contents).
+     * <p>
+     * Backends able to persist compiled code can use the key to invalidate
+     * it, the default implementation simply ignores it.
+     *
+     * @throws ScriptException If the engine is not available.
+     */
+    default ScriptEngine createEngine(ClassLoader classLoader, String scripts)
+    throws ScriptException {
+        return createEngine(classLoader);
+    }
+
+    /**
+     * Create new {@link Bindings} for an isolated {@link ScriptContext} of
+     * a {@link ScriptEngine} {@linkplain #createEngine(ClassLoader) created}
+     * by this instance.
+     */
+    default Bindings createBindings(ScriptEngine engine) {
+        return engine.createBindings();
+    }
+
+}
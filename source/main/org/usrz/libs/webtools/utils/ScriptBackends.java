@@ -0,0 +1,141 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.utils;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.Bindings;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.usrz.libs.configurations.Configurations;
+
+/**
+ * The {@link ScriptBackend}s available out of the box.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public enum ScriptBackends implements ScriptBackend {
+
+    /** Whatever engine the JVM provides for {@code application/javascript} (the default). */
+    DEFAULT {
+        @Override
+        public ScriptEngine createEngine(ClassLoader classLoader)
+        throws ScriptException {
+            return engine(this, classLoader, new ScriptEngineManager(classLoader).getEngineByMimeType("application/javascript"));
+        }
+    },
+
+    /** <em>Nashorn</em>, bundled with the JDK or as a standalone library. */
+    NASHORN {
+        @Override
+        public ScriptEngine createEngine(ClassLoader classLoader)
+        throws ScriptException {
+            return engine(this, classLoader, new ScriptEngineManager(classLoader).getEngineByName("nashorn"));
+        }
+    },
+
+    /**
+     * <em>GraalJS</em>, with access to host classes and <em>Nashorn</em>
+     * compatibility (for our adapters to read Java {@code Map}s) enabled.
+     */
+    GRAALJS {
+        @Override
+        public ScriptEngine createEngine(ClassLoader classLoader)
+        throws ScriptException {
+            return engine(this, classLoader, new ScriptEngineManager(classLoader).getEngineByName("graal.js"));
+        }
+
+        @Override
+        public Bindings createBindings(ScriptEngine engine) {
+            final Bindings bindings = engine.createBindings();
+            bindings.put("polyglot.js.allowAllAccess", true);
+            bindings.put("polyglot.js.nashorn-compat", true);
+            return bindings;
+        }
+    };
+
+    /* ====================================================================== */
+
+    /**
+     * Parse the {@code script_backend} key from some {@link Configurations}
+     * (the case insensitive name of one of our constants, or the class name
+     * of a {@link ScriptBackend}), defaulting to {@link #DEFAULT}.
+     * <p>
+     * If the {@code script_cache} key specifies a directory, the backend
+     * will also {@linkplain #withCodeCache(ScriptBackend, File) persist}
+     * compiled code there.
+     */
+    public static ScriptBackend from(Configurations configurations) {
+        final File cache = configurations.getFile("script_cache");
+        final ScriptBackend backend = backend(configurations.get("script_backend", DEFAULT.name()));
+        return cache == null ? backend : withCodeCache(backend, cache);
+    }
+
+    /**
+     * Wrap the specified {@link ScriptBackend} so that the code compiled by
+     * its engines is persisted in the specified directory, and reused after
+     * restarts.
+     * <p>
+     * This is only supported by <em>Nashorn</em>, and has no effect on
+     * engines created by any other backend.
+     * <p>
+     * Compiled code is automatically invalidated whenever the scripts it
+     * was compiled from change.
+     */
+    public static ScriptBackend withCodeCache(ScriptBackend backend, File directory) {
+        return new CodeCacheBackend(backend, directory);
+    }
+
+    /* ====================================================================== */
+
+    /* Find one of our constants, or the (only) instance of a class */
+    private static ScriptBackend backend(String backend) {
+        for (ScriptBackends value: values()) {
+            if (value.name().equalsIgnoreCase(backend)) return value;
+        }
+        return Custom.BACKENDS.computeIfAbsent(backend, Custom::create);
+    }
+
+    /* Check that we actually got an engine */
+    private static ScriptEngine engine(ScriptBackends backend, ClassLoader classLoader, ScriptEngine engine)
+    throws ScriptException {
+        if (engine != null) return engine;
+        throw new ScriptException("Script backend " + backend + " not available from " + classLoader);
+    }
+
+    /* ====================================================================== */
+
+    /* Backends configured by class name, created once (libraries are keyed by them) */
+    private static final class Custom {
+
+        private static final ConcurrentMap<String, ScriptBackend> BACKENDS = new ConcurrentHashMap<>();
+
+        private static ScriptBackend create(String backend) {
+            try {
+                return Class.forName(backend, true, ScriptBackends.class.getClassLoader())
+                            .asSubclass(ScriptBackend.class)
+                            .getDeclaredConstructor()
+                            .newInstance();
+            } catch (ReflectiveOperationException | ClassCastException exception) {
+                throw new IllegalArgumentException("Invalid script backend \"" + backend + "\"", exception);
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.utils;
+
+import static org.usrz.libs.utils.Charsets.UTF8;
+import static org.usrz.libs.utils.Check.notNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+import org.usrz.libs.logging.Log;
+
+/**
+ * A set of <em>JavaScript</em> library scripts (like <em>LessCSS</em> or
+ * <em>UglifyJS</em> and their adapters) read and compiled only once, and
+ * then evaluated in any number of isolated {@link ScriptContext}s.
+ * <p>
+ * Engines are created by a {@link ScriptBackend} (which might persist the
+ * code they compile, keyed by a hash of all the scripts), and when they are
+ * not {@link Compilable} the scripts are still read once, but evaluated
+ * from source in each context.
+ * <p>
+ * Contexts are not thread-safe, but different contexts can be used by
+ * different threads concurrently.
+ *
+ * @author <a href="mailto:pier@usrz.com">Pier Fumagalli</a>
+ */
+public class ScriptLibrary {
+
+    private static final String ARGUMENT = "__script_library_argument_";
+    private static final String ALGORITHM = "SHA-1";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Log log = new Log();
+
+    private final ConcurrentMap<String, Script> invokers = new ConcurrentHashMap<>();
+    private final List<Script> scripts;
+    private final ScriptBackend backend;
+    private final ScriptEngine engine;
+
+    /**
+     * Create a new {@link ScriptLibrary} reading the specified scripts (in
+     * order) as resources relative to the specified {@link Class}, using
+     * the {@linkplain ScriptBackends#DEFAULT default} {@link ScriptBackend}.
+     */
+    public ScriptLibrary(Class<?> base, String... resources)
+    throws IOException, ScriptException {
+        this(ScriptBackends.DEFAULT, base, resources);
+    }
+
+    /**
+     * Create a new {@link ScriptLibrary} reading the specified scripts (in
+     * order) as resources relative to the specified {@link Class}, using
+     * the specified {@link ScriptBackend}.
+     */
+    public ScriptLibrary(ScriptBackend backend, Class<?> base, String... resources)
+    throws IOException, ScriptException {
+        this.backend = notNull(backend, "Null backend");
+        notNull(base, "Null base class");
+
+        /* Read all our scripts, and hash them (for caching compiled code) */
+        final String[] sources = new String[resources.length];
+        final MessageDigest digest = digest();
+        for (int x = 0; x < resources.length; x ++) {
+            final InputStream input = base.getResourceAsStream(resources[x]);
+            if (input == null) throw new IOException("Resource " + resources[x] + " not found");
+            try (Reader reader = new InputStreamReader(input, UTF8)) {
+                final StringWriter writer = new StringWriter();
+                final char[] buffer = new char[65536];
+                for (int read = reader.read(buffer); read >= 0; read = reader.read(buffer)) {
+                    writer.write(buffer, 0, read);
+                }
+                sources[x] = writer.toString();
+            }
+            digest.update((resources[x] + "\n").getBytes(UTF8));
+            digest.update(sources[x].getBytes(UTF8));
+        }
+
+        engine = backend.createEngine(base.getClassLoader(), hex(digest.digest()));
+
+        final long started = System.nanoTime();
+        final List<Script> scripts = new ArrayList<>(resources.length);
+        for (int x = 0; x < resources.length; x ++) scripts.add(compile(resources[x], sources[x]));
+
+        this.scripts = Collections.unmodifiableList(scripts);
+        log.debug("Compiled %d scripts in %d ms with %s", scripts.size(),
+                  (System.nanoTime() - started) / 1000000, engine.getFactory().getEngineName());
+    }
+
+    /* ====================================================================== */
+
+    /**
+     * Create a new, isolated {@link ScriptContext} in which all the scripts
+     * of this library have been evaluated.
+     */
+    public ScriptContext newContext()
+    throws ScriptException {
+        final ScriptContext context = new SimpleScriptContext();
+        context.setBindings(backend.createBindings(engine), ScriptContext.ENGINE_SCOPE);
+        for (Script script: scripts) script.eval(context);
+        return context;
+    }
+
+    /**
+     * Invoke the global function with the specified name in the specified
+     * {@link ScriptContext} (created by this instance).
+     */
+    public Object invoke(ScriptContext context, String function, Object... arguments)
+    throws ScriptException {
+        final Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        for (int x = 0; x < arguments.length; x ++) bindings.put(ARGUMENT + x, arguments[x]);
+        try {
+            return invoker(function, arguments.length).eval(context);
+        } finally {
+            for (int x = 0; x < arguments.length; x ++) bindings.remove(ARGUMENT + x);
+        }
+    }
+
+    /* ====================================================================== */
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Algorithm " + ALGORITHM + " not available", exception);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int x = 0, y = 0; x < bytes.length; x ++) {
+            chars[y ++] = HEX[(bytes[x] >> 4) & 0x0F];
+            chars[y ++] = HEX[bytes[x] & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /* A (compiled) call to a function with some arguments in our bindings */
+    private Script invoker(String function, int arguments)
+    throws ScriptException {
+        final String key = function + "/" + arguments;
+        final Script invoker = invokers.get(key);
+        if (invoker != null) return invoker;
+
+        final StringBuilder call = new StringBuilder(function).append('(');
+        for (int x = 0; x < arguments; x ++) call.append(x == 0 ? "" : ",").append(ARGUMENT).append(x);
+        final Script script = compile(key, call.append(')').toString());
+
+        final Script existing = invokers.putIfAbsent(key, script);
+        return existing == null ? script : existing;
+    }
+
+    /* Compile a script, if our engine allows us to */
+    private Script compile(String name, String source)
+    throws ScriptException {
+        if (! (engine instanceof Compilable)) return new Script(name, source, null);
+        synchronized (engine) {
+            engine.put(ScriptEngine.FILENAME, name);
+            return new Script(name, null, ((Compilable) engine).compile(source));
+        }
+    }
+
+    /* ====================================================================== */
+
+    /* A script, either compiled or (when we can't compile) its source */
+    private final class Script {
+
+        private final String name;
+        private final String source;
+        private final CompiledScript compiled;
+
+        private Script(String name, String source, CompiledScript compiled) {
+            this.name = name;
+            this.source = source;
+            this.compiled = compiled;
+        }
+
+        private Object eval(ScriptContext context)
+        throws ScriptException {
+            if (compiled != null) return compiled.eval(context);
+            context.setAttribute(ScriptEngine.FILENAME, name, ScriptContext.ENGINE_SCOPE);
+            return engine.eval(source, context);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/* ========================================================================== */
+/* A MINIMAL SOURCE MAP (V3) GENERATOR                                        */
+/* -------------------------------------------------------------------------- */
+/* Only the subset of Mozilla's "source-map" API used by LessCSS and UglifyJS */
+/* is implemented: addMapping(...), setSourceContent(...) and toJSON().       */
+/* ========================================================================== */
+
+var MOZ_SourceMap = (function() {
+
+  var BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+  /* Encode a signed integer as a base-64 VLQ */
+  function vlq(value) {
+    var encoded = "";
+    var remaining = value < 0 ? ((-value) << 1) + 1 : value << 1;
+    do {
+      var digit = remaining & 31;
+      remaining >>>= 5;
+      if (remaining > 0) digit |= 32;
+      encoded += BASE64.charAt(digit);
+    } while (remaining > 0);
+    return encoded;
+  }
+
+  /* Index a string in an array, remembering its position */
+  function index(array, indexes, value) {
+    if (!indexes.hasOwnProperty(value)) {
+      indexes[value] = array.length;
+      array.push(value);
+    }
+    return indexes[value];
+  }
+
+  function SourceMapGenerator(options) {
+    options = options || {};
+    this._file = options.file || null;
+    this._sourceRoot = options.sourceRoot || null;
+    this._sources = [];
+    this._sourceIndexes = {};
+    this._names = [];
+    this._nameIndexes = {};
+    this._contents = {};
+    this._mappings = [];
+  }
+
+  SourceMapGenerator.prototype.addMapping = function(mapping) {
+    var original = mapping.original;
+    var mapped = original && (mapping.source != null) && (original.line != null);
+    this._mappings.push({
+      line: mapping.generated.line,
+      column: mapping.generated.column,
+      source: mapped ? index(this._sources, this._sourceIndexes, mapping.source) : -1,
+      originalLine: mapped ? original.line - 1 : 0,
+      originalColumn: mapped ? original.column : 0,
+      name: mapped && mapping.name ? index(this._names, this._nameIndexes, mapping.name) : -1
+    });
+  };
+
+  SourceMapGenerator.prototype.setSourceContent = function(source, content) {
+    index(this._sources, this._sourceIndexes, source);
+    this._contents[source] = content;
+  };
+
+  SourceMapGenerator.prototype._serializeMappings = function() {
+    var mappings = this._mappings.slice().sort(function(a, b) {
+      return (a.line - b.line) || (a.column - b.column);
+    });
+
+    var result = "";
+    var line = 1, column = 0, source = 0, originalLine = 0, originalColumn = 0, name = 0;
+    for (var i = 0; i < mappings.length; i++) {
+      var mapping = mappings[i];
+
+      if (mapping.line !== line) {
+        column = 0;
+        while (line < mapping.line) { result += ";"; line ++; }
+      } else if (i > 0) {
+        var previous = mappings[i - 1];
+        if ((previous.column === mapping.column) &&
+            (previous.source === mapping.source) &&
+            (previous.originalLine === mapping.originalLine) &&
+            (previous.originalColumn === mapping.originalColumn) &&
+            (previous.name === mapping.name)) continue;
+        result += ",";
+      }
+
+      result += vlq(mapping.column - column);
+      column = mapping.column;
+      if (mapping.source < 0) continue;
+
+      result += vlq(mapping.source - source);
+      result += vlq(mapping.originalLine - originalLine);
+      result += vlq(mapping.originalColumn - originalColumn);
+      source = mapping.source;
+      originalLine = mapping.originalLine;
+      originalColumn = mapping.originalColumn;
+
+      if (mapping.name < 0) continue;
+      result += vlq(mapping.name - name);
+      name = mapping.name;
+    }
+    return result;
+  };
+
+  SourceMapGenerator.prototype.toJSON = function() {
+    var map = { version: 3 };
+    if (this._file != null) map.file = this._file;
+    if (this._sourceRoot != null) map.sourceRoot = this._sourceRoot;
+    map.sources = this._sources.slice();
+    map.names = this._names.slice();
+    map.mappings = this._serializeMappings();
+
+    var contents = this._contents;
+    map.sourcesContent = this._sources.map(function(source) {
+      return contents.hasOwnProperty(source) ? contents[source] : null;
+    });
+    return map;
+  };
+
+  SourceMapGenerator.prototype.toString = function() {
+    return JSON.stringify(this.toJSON());
+  };
+
+  return { SourceMapGenerator: SourceMapGenerator };
+})();
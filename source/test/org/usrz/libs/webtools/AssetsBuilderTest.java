@@ -0,0 +1,65 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools;
+
+import static org.usrz.libs.utils.Charsets.UTF8;
+
+import java.io.File;
+
+import org.testng.annotations.Test;
+import org.usrz.libs.configurations.ConfigurationsBuilder;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.testing.IO;
+import org.usrz.libs.webtools.resources.AssetsBuilder;
+import org.usrz.libs.webtools.resources.ServeResource;
+
+public class AssetsBuilderTest extends AbstractTest {
+
+    @Test
+    public void testBuildAndServe()
+    throws Exception {
+        final File source = IO.makeTempDir();
+        final File target = IO.makeTempDir();
+        IO.copy(IO.read("test.less"),   new File(source, "test.less"));
+        IO.copy(IO.read("import.less"), new File(source, "import.less"));
+        IO.copy(IO.read("test.json"),   new File(source, "test.json"));
+        IO.copy(IO.read("test.bin"),    new File(source, "test.bin"));
+
+        assertEquals(new AssetsBuilder(source, target, UTF8, true).build(), 4);
+
+        /* Processed, copied and described */
+        assertEquals(IO.read(new File(target, "test.less")), IO.read("test.min.css"));
+        assertEquals(IO.read(new File(target, "import.less")), IO.read("import.min.css"));
+        assertEquals(IO.read(new File(target, "test.json")), "{\"foo\":\"bar\"}".getBytes(UTF8));
+        assertEquals(IO.read(new File(target, "test.bin")), IO.read("test.bin"));
+
+        final String manifest = new String(IO.read(new File(target, "manifest.json")), UTF8);
+        assertTrue(manifest.contains("\"import.less\""), "No \"import.less\" in manifest:\n" + manifest);
+        assertTrue(manifest.contains("[ \"test.less\" ]"), "No dependencies for \"import.less\" in manifest:\n" + manifest);
+
+        /* Precompiled entries are simply loaded */
+        final ServeResource resource = new ServeResource(new ConfigurationsBuilder()
+                    .put("root_path", target)
+                    .put("manifest", new File(target, "manifest.json"))
+                    .put("warmup", true)
+                    .put("warmup_wait", "1 min")
+                    .build());
+
+        assertTrue(resource.isReady(), "Not ready after warmup: " + resource.getWarmup());
+        assertEquals(resource.getWarmup().getCompleted(), 3);
+        assertEquals(resource.getWarmup().getFailed(), 0);
+    }
+}
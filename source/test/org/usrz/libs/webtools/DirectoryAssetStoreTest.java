@@ -0,0 +1,113 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+import org.usrz.libs.configurations.ConfigurationsBuilder;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.testing.IO;
+import org.usrz.libs.webtools.resources.CompiledAssetStore;
+import org.usrz.libs.webtools.resources.DirectoryAssetStore;
+import org.usrz.libs.webtools.resources.ServeResource;
+
+public class DirectoryAssetStoreTest extends AbstractTest {
+
+    @Test
+    public void testPublishAndRead()
+    throws Exception {
+        final CompiledAssetStore store = new DirectoryAssetStore(IO.makeTempDir());
+
+        assertNull(store.read("0123456789abcdef"));
+        store.publish("0123456789abcdef", "first".getBytes());
+        assertEquals(store.read("0123456789abcdef"), "first".getBytes());
+        store.publish("0123456789abcdef", "second".getBytes());
+        assertEquals(store.read("0123456789abcdef"), "second".getBytes());
+
+        try {
+            store.read("../../etc/passwd");
+            fail("Invalid key accepted");
+        } catch (IllegalArgumentException exception) {
+            /* Expected */
+        }
+    }
+
+    @Test
+    public void testReadersNeverSeePartialRecords()
+    throws Exception {
+        final CompiledAssetStore store = new DirectoryAssetStore(IO.makeTempDir());
+        final byte[] a = new byte[1024 * 1024];
+        final byte[] b = new byte[1024 * 1024];
+        Arrays.fill(a, (byte) 'a');
+        Arrays.fill(b, (byte) 'b');
+        store.publish("abcdef", a);
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            try {
+                while (! done.get()) {
+                    final byte[] record = store.read("abcdef");
+                    if (! (Arrays.equals(record, a) || Arrays.equals(record, b))) failure.set("Partial record read");
+                }
+            } catch (Exception exception) {
+                failure.set(exception.toString());
+            }
+        });
+        reader.start();
+
+        for (int x = 0; x < 50; x ++) store.publish("abcdef", x % 2 == 0 ? b : a);
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get(), failure.get());
+    }
+
+    @Test
+    public void testSharedBetweenNodes()
+    throws Exception {
+        final File shared = IO.makeTempDir();
+        final String less = "@left: 1px; .foo { left: @left; }";
+
+        /* Two "nodes", with their own copies of the same files */
+        final File root1 = IO.makeTempDir();
+        final File root2 = IO.makeTempDir();
+        IO.copy(less.getBytes(), new File(root1, "shared.less"));
+        IO.copy(less.getBytes(), new File(root2, "shared.less"));
+
+        final ServeResource node1 = new ServeResource(new ConfigurationsBuilder()
+                    .put("root_path", root1)
+                    .put("compiled_store.class", DirectoryAssetStore.class.getName())
+                    .put("compiled_store.directory", shared)
+                    .build());
+        final String fingerprint = node1.fingerprint("shared.css");
+        final String[] published = shared.list();
+        assertEquals(published.length, 1, "Nothing published in " + shared);
+
+        /* The second node reads what the first one published */
+        final ServeResource node2 = new ServeResource(new ConfigurationsBuilder()
+                    .put("root_path", root2)
+                    .put("compiled_store.class", DirectoryAssetStore.class.getName())
+                    .put("compiled_store.directory", shared)
+                    .build());
+        assertEquals(node2.fingerprint("shared.css"), fingerprint);
+        assertEquals(shared.list(), published);
+    }
+}
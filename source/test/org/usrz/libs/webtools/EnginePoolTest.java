@@ -0,0 +1,107 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.webtools.utils.EnginePool;
+
+public class EnginePoolTest extends AbstractTest {
+
+    @Test
+    public void testBorrowAndRelease()
+    throws Exception {
+        final EnginePool<AtomicBoolean> pool = new EnginePool<>("test", 2, AtomicBoolean::new, (engine) -> ! engine.get());
+
+        final AtomicBoolean engine1 = pool.borrow();
+        final AtomicBoolean engine2 = pool.borrow();
+        assertNotSame(engine1, engine2);
+        assertEquals(pool.getCreated(), 2);
+        assertEquals(pool.getIdle(), 0);
+
+        /* Pool is full, wait for a release */
+        final AtomicReference<AtomicBoolean> borrowed = new AtomicReference<>();
+        final Thread borrower = new Thread(() -> {
+            try {
+                borrowed.set(pool.borrow());
+            } catch (InterruptedException exception) {
+                /* Nothing to do */
+            }
+        });
+        borrower.start();
+        borrower.join(200);
+        assertNull(borrowed.get());
+
+        pool.release(engine1);
+        borrower.join();
+        assertSame(borrowed.get(), engine1);
+        assertEquals(pool.getCreated(), 2);
+    }
+
+    @Test
+    public void testHealthChecks()
+    throws Exception {
+        final EnginePool<AtomicBoolean> pool = new EnginePool<>("test", 1, AtomicBoolean::new, (engine) -> ! engine.get());
+
+        /* Failed, but still healthy: kept */
+        final AtomicBoolean engine1 = pool.borrow();
+        pool.release(engine1, true);
+        assertSame(pool.borrow(), engine1);
+
+        /* Failed, and broken: replaced */
+        engine1.set(true);
+        pool.release(engine1, true);
+        assertEquals(pool.getCreated(), 0);
+        assertEquals(pool.getDiscarded(), 1L);
+
+        final AtomicBoolean engine2 = pool.borrow();
+        assertNotSame(engine2, engine1);
+        assertFalse(engine2.get());
+        assertEquals(pool.getCreated(), 1);
+    }
+
+    @Test
+    public void testMetrics()
+    throws Exception {
+        final EnginePool<AtomicBoolean> pool = new EnginePool<>("test", 1, AtomicBoolean::new, (engine) -> true);
+
+        final AtomicBoolean engine = pool.borrow();
+        assertEquals(pool.getActive(), 1);
+
+        /* Someone waits for our engine to be released */
+        final Thread borrower = new Thread(() -> {
+            try {
+                pool.release(pool.borrow());
+            } catch (InterruptedException exception) {
+                /* Nothing to do */
+            }
+        });
+        borrower.start();
+        Thread.sleep(200);
+        pool.release(engine);
+        borrower.join();
+
+        assertEquals(pool.getActive(), 0);
+        assertEquals(pool.getBorrowed(), 2L);
+        assertEquals(pool.getWaited(), 1L);
+        assertTrue(pool.getWaitTime().toMillis() >= 100, "Wait time " + pool.getWaitTime());
+        assertTrue(pool.getUtilization() > 0.5, "Utilization " + pool.getUtilization());
+        assertTrue(pool.getUtilization() <= 1, "Utilization " + pool.getUtilization());
+    }
+}
@@ -18,13 +18,21 @@ package org.usrz.libs.webtools;
 import static org.usrz.libs.utils.Charsets.UTF8;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import org.usrz.libs.testing.AbstractTest;
 import org.usrz.libs.testing.IO;
 import org.usrz.libs.webtools.lesscss.LessCSS;
+import org.usrz.libs.webtools.lesscss.LessCSSException;
+import org.usrz.libs.webtools.lesscss.LessCSSPool;
 import org.usrz.libs.webtools.resources.ResourceManager;
+import org.usrz.libs.webtools.resources.Resources;
 
 public class LessTest extends AbstractTest {
 
@@ -66,6 +74,49 @@ public class LessTest extends AbstractTest {
         assertEquals(result, css);
     }
 
+    @Test(priority=4)
+    public void testLessInstances()
+    throws Exception {
+        final String less = new String(IO.read("test.less"), UTF8);
+        final String css = new String(IO.read("test.min.css"), UTF8);
+
+        /* Scripts are compiled once, but every instance has its own context */
+        final LessCSS lessc1 = new LessCSS();
+        final LessCSS lessc2 = new LessCSS();
+        assertEquals(lessc1.convert(manager.getResource("import.less"), true), new String(IO.read("import.min.css"), UTF8));
+        assertEquals(lessc2.convert(less, true), css);
+        assertEquals(lessc1.convert(less, true), css);
+    }
+
+    @Test(priority=5)
+    public void testLessPool()
+    throws Exception {
+        final LessCSSPool pool = new LessCSSPool(2);
+        final String css = new String(IO.read("import.min.css"), UTF8);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int x = 0; x < 8; x ++) {
+                results.add(executor.submit(() -> pool.convert(new Resources(manager.getResource("import.less")), true)));
+            }
+            for (Future<String> result: results) assertEquals(result.get(), css);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(pool.getPool().getCreated(), 2);
+
+        /* Broken sources don't break engines */
+        try {
+            pool.convert(".foo { color: @undefined; }", true);
+            fail("Exception not thrown");
+        } catch (LessCSSException exception) {
+            /* Expected */
+        }
+        assertEquals(pool.getPool().getDiscarded(), 0L);
+        assertEquals(pool.convert(new Resources(manager.getResource("import.less")), true), css);
+    }
+
     @Test(priority=999)
     public void testLessBootstrap()
     throws Exception {
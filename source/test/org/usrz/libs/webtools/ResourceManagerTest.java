@@ -0,0 +1,233 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools;
+
+import static org.usrz.libs.utils.Charsets.UTF8;
+
+import java.io.File;
+import java.time.Duration;
+
+import org.testng.annotations.Test;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.testing.IO;
+import org.usrz.libs.webtools.resources.ChangeDetection;
+import org.usrz.libs.webtools.resources.Resource;
+import org.usrz.libs.webtools.resources.ResourceException;
+import org.usrz.libs.webtools.resources.ResourceManager;
+
+public class ResourceManagerTest extends AbstractTest {
+
+    @Test
+    public void testWatchChanges()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File file = new File(root, "watched.txt");
+        IO.copy("foo".getBytes(UTF8), file);
+
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.WATCH, Duration.ofMillis(100));
+        try {
+            final Resource resource = manager.getResource("watched.txt");
+            assertEquals(resource.readString(), "foo");
+            assertFalse(resource.hasChanged(), "Resource changed before modification");
+
+            IO.copy("bar".getBytes(UTF8), file);
+
+            /* Some watchers (e.g. OS/X) are polling, give them time */
+            for (int x = 0; (x < 300) && (!resource.hasChanged()); x ++) Thread.sleep(100);
+            assertTrue(resource.hasChanged(), "Resource not changed after modification");
+            assertEquals(manager.getResource("watched.txt").readString(), "bar");
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testWatchDeletions()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File file = new File(root, "deleted.txt");
+        IO.copy("foo".getBytes(UTF8), file);
+
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.WATCH, Duration.ofMillis(100));
+        try {
+            final Resource resource = manager.getResource("deleted.txt");
+            assertEquals(resource.readString(), "foo");
+
+            /* Deleted (and forgotten), still changed */
+            assertTrue(file.delete(), "Unable to delete " + file);
+            for (int x = 0; (x < 300) && (!resource.hasChanged()); x ++) Thread.sleep(100);
+            assertTrue(resource.hasChanged(), "Resource not changed after deletion");
+
+            /* Re-created, and changed again after being read */
+            IO.copy("bar".getBytes(UTF8), file);
+            final Resource recreated = manager.getResource("deleted.txt");
+            assertEquals(recreated.readString(), "bar");
+            IO.copy("baz".getBytes(UTF8), file);
+            for (int x = 0; (x < 300) && (!recreated.hasChanged()); x ++) Thread.sleep(100);
+            assertTrue(recreated.hasChanged(), "Resource not changed after modification");
+        } finally {
+            manager.close();
+        }
+    }
+
+    @Test
+    public void testSharedWatcher()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File file = new File(root, "shared.txt");
+        IO.copy("foo".getBytes(UTF8), file);
+
+        final ResourceManager first = new ResourceManager(root, UTF8, ChangeDetection.WATCH, Duration.ofMillis(100));
+        final ResourceManager second = new ResourceManager(root, UTF8, ChangeDetection.WATCH, Duration.ofMillis(100));
+        try {
+            final Resource resource = second.getResource("shared.txt");
+            assertEquals(resource.readString(), "foo");
+
+            /* Closing one manager must not stop the other from watching */
+            first.close();
+            IO.copy("bar".getBytes(UTF8), file);
+
+            for (int x = 0; (x < 300) && (!resource.hasChanged()); x ++) Thread.sleep(100);
+            assertTrue(resource.hasChanged(), "Resource not changed after modification");
+            assertEquals(second.getResource("shared.txt").readString(), "bar");
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+
+    @Test
+    public void testNeverChanges()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File file = new File(root, "never.txt");
+        IO.copy("foo".getBytes(UTF8), file);
+        final long modified = file.lastModified();
+
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.NEVER, Duration.ZERO);
+        final Resource resource = manager.getResource("never.txt");
+        assertEquals(resource.readString(), "foo");
+
+        IO.copy("bar".getBytes(UTF8), file);
+        assertTrue(file.setLastModified(modified + 10000), "Unable to \"touch\" file " + file);
+        assertFalse(resource.hasChanged(), "Resource changed with no change detection");
+    }
+
+    @Test
+    public void testNegativeCache()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File file = new File(root, "missing.txt");
+
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.NEVER, Duration.ZERO, 10, Duration.ofMillis(500));
+        assertNull(manager.getResource("missing.txt"));
+
+        /* Created, but we remember it missing */
+        IO.copy("foo".getBytes(UTF8), file);
+        assertNull(manager.getResource("missing.txt"));
+
+        /* Forgotten after our TTL */
+        Thread.sleep(600);
+        assertNotNull(manager.getResource("missing.txt"));
+        assertEquals(manager.getResource("missing.txt").readString(), "foo");
+    }
+
+    @Test
+    public void testNoNegativeCacheWhenStating()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final ResourceManager manager = new ResourceManager(root, UTF8);
+        assertNull(manager.getResource("created.txt"));
+
+        /* Not remembered missing, found as soon as created */
+        IO.copy("foo".getBytes(UTF8), new File(root, "created.txt"));
+        assertEquals(manager.getResource("created.txt").readString(), "foo");
+    }
+
+    @Test
+    public void testNegativeCacheEviction()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.NEVER, Duration.ZERO, 4, Duration.ofMinutes(1));
+        for (int x = 0; x < 5; x ++) assertNull(manager.getResource("missing" + x + ".txt"));
+        for (int x = 0; x < 5; x ++) IO.copy("foo".getBytes(UTF8), new File(root, "missing" + x + ".txt"));
+
+        /* The oldest was forgotten, the newest still remembered */
+        assertNotNull(manager.getResource("missing0.txt"));
+        for (int x = 1; x < 5; x ++) assertNull(manager.getResource("missing" + x + ".txt"));
+    }
+
+    @Test
+    public void testNegativeCacheAliases()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.NEVER, Duration.ZERO, 1, Duration.ofMinutes(1));
+        assertNull(manager.getResource("x.js"));
+        IO.copy("foo".getBytes(UTF8), new File(root, "x.js"));
+
+        /* All aliases of the same missing file share its (only) entry */
+        assertNull(manager.getResource("./x.js"));
+        assertNull(manager.getResource("a/../x.js"));
+        assertNull(manager.getResource("//x.js"));
+        assertNull(manager.getResource("x.js"));
+    }
+
+    @Test
+    public void testOutsideRoot()
+    throws Exception {
+        final File parent = IO.makeTempDir();
+        final File root = new File(parent, "root");
+        assertTrue(root.mkdir(), "Unable to create " + root);
+        IO.copy("foo".getBytes(UTF8), new File(parent, "outside.txt"));
+
+        /* Same contract, indexed or not */
+        for (boolean index: new boolean[] { false, true }) {
+            final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.NEVER, Duration.ZERO, 0, Duration.ZERO, index);
+            assertNull(manager.getResource("../missing.txt"));
+            try {
+                manager.getResource("../outside.txt");
+                fail("Resource outside of root returned (index=" + index + ")");
+            } catch (ResourceException exception) {
+                /* Expected */
+            }
+        }
+    }
+
+    @Test
+    public void testIndex()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File directory = new File(root, "directory");
+        assertTrue(directory.mkdir(), "Unable to create " + directory);
+        IO.copy("foo".getBytes(UTF8), new File(directory, "indexed.txt"));
+
+        final ResourceManager manager = new ResourceManager(root, UTF8, ChangeDetection.WATCH, Duration.ofMillis(100), 0, Duration.ZERO, true);
+        try {
+            assertEquals(manager.getResource("directory/indexed.txt").readString(), "foo");
+            assertEquals(manager.getResource("directory/../directory/./indexed.txt").readString(), "foo");
+            assertNull(manager.getResource("directory/missing.txt"));
+            assertNull(manager.getResource("../indexed.txt"));
+
+            /* New files are indexed when noticed */
+            IO.copy("bar".getBytes(UTF8), new File(directory, "created.txt"));
+            for (int x = 0; (x < 300) && (manager.getResource("directory/created.txt") == null); x ++) Thread.sleep(100);
+            assertEquals(manager.getResource("directory/created.txt").readString(), "bar");
+        } finally {
+            manager.close();
+        }
+    }
+
+}
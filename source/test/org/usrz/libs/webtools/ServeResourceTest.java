@@ -18,6 +18,8 @@ package org.usrz.libs.webtools;
 import java.io.File;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -28,6 +30,7 @@ import org.usrz.libs.httpd.ServerStarter;
 import org.usrz.libs.testing.AbstractTest;
 import org.usrz.libs.testing.IO;
 import org.usrz.libs.testing.NET;
+import org.usrz.libs.webtools.resources.ComboResource;
 import org.usrz.libs.webtools.resources.ServeResource;
 
 public class ServeResourceTest extends AbstractTest {
@@ -58,12 +61,15 @@ public class ServeResourceTest extends AbstractTest {
                     .put("resources.executor.keep_alive_time", "10 sec")
                     .put("resources.executor.queue_size", 10)
                     .put("resources.executor.executor_name", "ServeResourceTest")
+                    .put("resources.bundles.styles", "combo.less, combo.css")
+                    .put("resources.source_maps", true)
                     .build();
 
         starter = new ServerStarter().start((builder) -> {
             builder.configure(serverConfig.strip("server"));
             builder.serveApp("/resources", (config) -> {
                 config.register(ServeResource.class);
+                config.register(ComboResource.class);
             }).withAppConfigurations(serverConfig.strip("resources"));
 
         });
@@ -80,6 +86,8 @@ public class ServeResourceTest extends AbstractTest {
     public void testResourceNotFound()
     throws Exception {
         assertEquals(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/foo.bar")).getResponseCode(), 404);
+        /* Again, now answered from memory */
+        assertEquals(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/foo.bar")).getResponseCode(), 404);
     }
 
     @Test
@@ -108,6 +116,23 @@ public class ServeResourceTest extends AbstractTest {
         testResource(new File(root, "import.less"), port, "import.less", IO.read("import.less"), ".foo{left:1px}".getBytes(), IO.read("import.min.css"));
     }
 
+    @Test
+    public void testLessResourceDependency()
+    throws Exception {
+        final File dependency = new File(root, "dependency.less");
+        IO.copy(".a{left:1px}".getBytes(), dependency);
+        IO.copy("@import \"dependency.less\";".getBytes(), new File(root, "dependent.less"));
+        final long modified = dependency.lastModified();
+
+        final URL url = new URL("http://127.0.0.1:" + port + "/resources/dependent.css");
+        assertRead(url, ".a{left:1px}".getBytes(), "Original content for " + url, false);
+
+        /* Change and "touch" only the imported file */
+        IO.copy(".b{left:2px}".getBytes(), dependency);
+        assertTrue(dependency.setLastModified(modified + 10000), "Unable to \"touch\" file " + dependency);
+        assertRead(url, ".b{left:2px}".getBytes(), "Modified dependency for " + url, false);
+    }
+
     @Test
     public void testJsonResource()
     throws Exception {
@@ -122,6 +147,205 @@ public class ServeResourceTest extends AbstractTest {
         assertRead(new URL("http://127.0.0.1:" + port + "/resources/test.bin"), data, "Binary resource", true);
     }
 
+    @Test
+    public void testConditionalResource()
+    throws Exception {
+        IO.copy(IO.read("test.bin"), new File(root, "conditional.bin"));
+        final URL url = new URL("http://127.0.0.1:" + port + "/resources/conditional.bin");
+
+        final HttpURLConnection connection = openAndDumpHeaders(url);
+        assertEquals(connection.getResponseCode(), 200);
+        final String etag = connection.getHeaderField("ETag");
+        assertNotNull(etag, "No ETag for " + url);
+        IO.read(connection.getInputStream());
+
+        /* Same entity tag, nothing to send */
+        assertEquals(openAndDumpHeaders(url, "If-None-Match", etag).getResponseCode(), 304);
+
+        /* Different entity tag, full response */
+        assertEquals(openAndDumpHeaders(url, "If-None-Match", "\"foo\"").getResponseCode(), 200);
+    }
+
+    @Test
+    public void testCompressedResource()
+    throws Exception {
+        IO.copy(IO.read("test.js"), new File(root, "compressed.js"));
+        final URL url = new URL("http://127.0.0.1:" + port + "/resources/compressed.js");
+
+        final HttpURLConnection gzip = openAndDumpHeaders(url, "Accept-Encoding", "deflate;q=0.5, gzip");
+        assertEquals(gzip.getHeaderField("Content-Encoding"), "gzip");
+        assertEquals(gzip.getHeaderField("Vary"), "Accept-Encoding");
+        assertEquals(IO.read(new GZIPInputStream(gzip.getInputStream())), IO.read("test.cm.min.js"));
+
+        final HttpURLConnection identity = openAndDumpHeaders(url, "Accept-Encoding", "identity");
+        assertNull(identity.getHeaderField("Content-Encoding"));
+        assertEquals(IO.read(identity.getInputStream()), IO.read("test.cm.min.js"));
+        assertNotEquals(identity.getHeaderField("ETag"), gzip.getHeaderField("ETag"));
+    }
+
+    @Test
+    public void testRangeResource()
+    throws Exception {
+        final byte[] data = IO.read("test.bin");
+        IO.copy(data, new File(root, "range.bin"));
+        final URL url = new URL("http://127.0.0.1:" + port + "/resources/range.bin");
+
+        final HttpURLConnection full = openAndDumpHeaders(url);
+        assertEquals(full.getHeaderField("Accept-Ranges"), "bytes");
+        final String etag = full.getHeaderField("ETag");
+        IO.read(full.getInputStream());
+
+        final HttpURLConnection partial = openAndDumpHeaders(url, "Range", "bytes=10-19", "If-Range", etag);
+        assertEquals(partial.getResponseCode(), 206);
+        assertEquals(partial.getHeaderField("Content-Range"), "bytes 10-19/" + data.length);
+        assertEquals(IO.read(partial.getInputStream()), Arrays.copyOfRange(data, 10, 20));
+
+        final HttpURLConnection invalid = openAndDumpHeaders(url, "Range", "bytes=10-19", "If-Range", "\"foo\"");
+        assertEquals(invalid.getResponseCode(), 200);
+        assertEquals(IO.read(invalid.getInputStream()), data);
+
+        final HttpURLConnection unsatisfiable = openAndDumpHeaders(url, "Range", "bytes=" + data.length + "-");
+        assertEquals(unsatisfiable.getResponseCode(), 416);
+        assertEquals(unsatisfiable.getHeaderField("Content-Range"), "bytes */" + data.length);
+    }
+
+    @Test
+    public void testFingerprintedResource()
+    throws Exception {
+        IO.copy(IO.read("test.js"), new File(root, "fingerprint.js"));
+
+        /* Same root and options, same fingerprint */
+        final String fingerprinted;
+        try (final ServeResource resource = new ServeResource(new ConfigurationsBuilder()
+                    .put("root_path", root)
+                    .put("minify", true)
+                    .build())) {
+            fingerprinted = resource.fingerprint("fingerprint.js");
+        }
+        assertTrue(fingerprinted.matches("fingerprint\\.[0-9a-f]{10}\\.js"), "Wrong fingerprint " + fingerprinted);
+
+        final HttpURLConnection immutable = openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/" + fingerprinted));
+        assertEquals(immutable.getResponseCode(), 200);
+        assertEquals(immutable.getHeaderField("Cache-Control"), "public, max-age=31536000, immutable");
+        assertEquals(IO.read(immutable.getInputStream()), IO.read("test.cm.min.js"));
+
+        final HttpURLConnection plain = openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/fingerprint.js"));
+        assertEquals(plain.getResponseCode(), 200);
+        assertNotEquals(plain.getHeaderField("Cache-Control"), "public, max-age=31536000, immutable");
+    }
+
+    @Test
+    public void testComboResource()
+    throws Exception {
+        IO.copy("var first = 1;".getBytes(), new File(root, "combo1.js"));
+        IO.copy("var second = 2;".getBytes(), new File(root, "combo2.js"));
+        IO.copy("@left: 1px; .foo { left: @left; }".getBytes(), new File(root, "combo.less"));
+        IO.copy(".bar { top: 2px; }".getBytes(), new File(root, "combo.css"));
+
+        /* Scripts listed in the query string, uglified together */
+        final HttpURLConnection scripts = openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/combo?combo1.js&combo2.js"));
+        assertEquals(scripts.getResponseCode(), 200);
+        assertTrue(scripts.getContentType().startsWith("application/javascript"), "Wrong content type " + scripts.getContentType());
+        final String script = new String(IO.read(scripts.getInputStream()));
+        assertTrue(script.contains("first=1") && script.contains("second=2"), "Wrong bundle " + script);
+
+        /* Styles from a named bundle */
+        final HttpURLConnection styles = openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/combo/styles"));
+        assertEquals(styles.getResponseCode(), 200);
+        assertEquals(new String(IO.read(styles.getInputStream())), ".foo{left:1px}.bar{top:2px}");
+
+        /* Missing members, unknown bundles and mixed types */
+        assertEquals(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/combo?combo1.js&missing.js")).getResponseCode(), 404);
+        assertEquals(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/combo/missing")).getResponseCode(), 404);
+        assertEquals(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/combo?combo1.js&combo.css")).getResponseCode(), 400);
+
+        /* Changing any member rebuilds the bundle */
+        final File second = new File(root, "combo2.js");
+        final long modified = second.lastModified();
+        IO.copy("var second = 3;".getBytes(), second);
+        assertTrue(second.setLastModified(modified + 10000), "Unable to \"touch\" file " + second);
+        final String updated = new String(IO.read(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/combo?combo1.js&combo2.js")).getInputStream()));
+        assertTrue(updated.contains("second=3"), "Bundle not rebuilt " + updated);
+    }
+
+    @Test
+    public void testSourceMap()
+    throws Exception {
+        IO.copy("function mapped(longName) {\n  return longName + 1;\n}\n".getBytes(), new File(root, "mapped.js"));
+
+        final HttpURLConnection script = openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/mapped.js"));
+        assertEquals(script.getResponseCode(), 200);
+        assertEquals(script.getHeaderField("SourceMap"), "mapped.js.map");
+
+        final HttpURLConnection map = openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/mapped.js.map"));
+        assertEquals(map.getResponseCode(), 200);
+        assertTrue(map.getContentType().startsWith("application/json"), "Wrong content type " + map.getContentType());
+        final String json = new String(IO.read(map.getInputStream()));
+        assertTrue(json.contains("\"sources\":[\"mapped.js\"]"), "Wrong source map " + json);
+        assertTrue(json.contains("longName"), "No original names in source map " + json);
+
+        /* Static files have no source maps */
+        IO.copy(IO.read("test.bin"), new File(root, "unmapped.bin"));
+        assertEquals(openAndDumpHeaders(new URL("http://127.0.0.1:" + port + "/resources/unmapped.bin.map")).getResponseCode(), 404);
+    }
+
+    @Test
+    public void testWarmup()
+    throws Exception {
+        final File warmRoot = IO.makeTempDir();
+        IO.copy(IO.read("test.less"), new File(warmRoot, "test.less"));
+        IO.copy(IO.read("test.json"), new File(warmRoot, "test.json"));
+        IO.copy(IO.read("test.bin"),  new File(warmRoot, "test.bin"));
+
+        try (final ServeResource resource = new ServeResource(new ConfigurationsBuilder()
+                    .put("root_path", warmRoot)
+                    .put("warmup", true)
+                    .put("warmup_wait", "1 min")
+                    .build())) {
+
+            assertTrue(resource.isReady(), "Not ready after warmup: " + resource.getWarmup());
+            assertEquals(resource.getWarmup().getTotal(), 2);
+            assertEquals(resource.getWarmup().getCompleted(), 2);
+            assertEquals(resource.getWarmup().getFailed(), 0);
+            assertEquals(resource.getCache().size(), 2);
+        }
+    }
+
+    @Test
+    public void testCompiledCache()
+    throws Exception {
+        final File compiledRoot = IO.makeTempDir();
+        final File compiledCache = IO.makeTempDir();
+        IO.copy("@left: 1px; .foo { left: @left; }".getBytes(), new File(compiledRoot, "compiled.less"));
+
+        final Configurations configurations = new ConfigurationsBuilder()
+                    .put("root_path", compiledRoot)
+                    .put("compiled_cache", compiledCache)
+                    .put("warmup", true)
+                    .put("warmup_wait", "1 min")
+                    .build();
+
+        /* Compile once, and see what's on disk */
+        final String fingerprint;
+        final String[] stored;
+        try (final ServeResource resource = new ServeResource(configurations)) {
+            fingerprint = resource.fingerprint("compiled.css");
+            stored = compiledCache.list();
+            assertEquals(stored.length, 1, "Nothing stored in " + compiledCache);
+            assertEquals(resource.getCompiledCache().getStoreCount(), 1);
+        }
+
+        /* "Restart", loading from disk rather than compiling */
+        try (final ServeResource restarted = new ServeResource(configurations)) {
+            assertTrue(restarted.isReady(), "Not ready after warmup: " + restarted.getWarmup());
+            assertEquals(restarted.getWarmup().getFailed(), 0);
+            assertEquals(restarted.fingerprint("compiled.css"), fingerprint);
+            assertEquals(compiledCache.list(), stored);
+            assertEquals(restarted.getCompiledCache().getHitCount(), 1);
+            assertEquals(restarted.getCompiledCache().getStoreCount(), 0);
+        }
+    }
+
     /* ====================================================================== */
 
     private void testResource(File file, int port, String name, byte[] original, byte[] update, byte[] expected)
@@ -165,9 +389,11 @@ public class ServeResourceTest extends AbstractTest {
         assertEquals(actual, expected, message);
     }
 
-    private HttpURLConnection openAndDumpHeaders(URL url)
+    private HttpURLConnection openAndDumpHeaders(URL url, String... headers)
     throws Exception {
         final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        for (int x = 0; x < headers.length; x += 2)
+            connection.setRequestProperty(headers[x], headers[x + 1]);
         System.out.println("--> HTTP/" + connection.getResponseCode() + " " + connection.getResponseMessage());
         connection.getHeaderFields().forEach((name, values) -> {
             if (name != null) values.forEach((value) -> {
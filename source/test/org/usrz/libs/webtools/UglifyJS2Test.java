@@ -17,10 +17,20 @@ package org.usrz.libs.webtools;
 
 import static org.usrz.libs.utils.Charsets.UTF8;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.testng.annotations.Test;
 import org.usrz.libs.testing.AbstractTest;
 import org.usrz.libs.testing.IO;
 import org.usrz.libs.webtools.uglifyjs.UglifyJS;
+import org.usrz.libs.webtools.uglifyjs.UglifyJSPool;
+import org.usrz.libs.webtools.utils.ScriptBackend;
+import org.usrz.libs.webtools.utils.ScriptBackends;
 
 public class UglifyJS2Test extends AbstractTest {
 
@@ -59,4 +69,46 @@ public class UglifyJS2Test extends AbstractTest {
         final String result = new UglifyJS().convert(script, true, true);
         assertEquals(result, min);
     }
+
+    @Test
+    public void testUglifyJS2_Pool()
+    throws Exception {
+        final String script = new String(IO.read("test.js"), UTF8);
+        final String min = new String(IO.read("test.cm.min.js"), UTF8);
+        final UglifyJSPool pool = new UglifyJSPool(2);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<>();
+            for (int x = 0; x < 8; x ++) results.add(executor.submit(() -> pool.convert(script, true, true)));
+            for (Future<String> result: results) assertEquals(result.get(), min);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(pool.getPool().getCreated(), 2);
+        assertEquals(pool.getPool().getActive(), 0);
+        assertEquals(pool.getPool().getBorrowed(), 8L);
+        assertTrue(pool.getPool().getUtilization() > 0, "No utilization in " + pool.getPool());
+    }
+
+    @Test
+    public void testUglifyJS2_CodeCache()
+    throws Exception {
+        final String script = new String(IO.read("test.js"), UTF8);
+        final String min = new String(IO.read("test.cm.min.js"), UTF8);
+        final File directory = IO.makeTempDir();
+        final ScriptBackend backend = ScriptBackends.withCodeCache(ScriptBackends.DEFAULT, directory);
+
+        assertEquals(new UglifyJS(backend).convert(script, true, true), min);
+
+        /* One directory, named after the hash of our scripts */
+        final String[] caches = directory.list();
+        assertEquals(caches.length, 1, "Wrong code caches in " + directory);
+        assertTrue(caches[0].matches("[0-9a-f]{40}"), "Wrong code cache name " + caches[0]);
+
+        /* Same backend and directory, same compiled scripts */
+        assertEquals(ScriptBackends.withCodeCache(ScriptBackends.DEFAULT, directory), backend);
+        assertEquals(new UglifyJS(backend).convert(script, true, true), min);
+    }
 }
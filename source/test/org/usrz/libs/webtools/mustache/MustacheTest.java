@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.Map;
 
+import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 import org.usrz.libs.testing.AbstractTest;
@@ -46,6 +47,11 @@ public class MustacheTest extends AbstractTest {
         factory = new MustacheTemplateManager(root);
     }
 
+    @AfterClass
+    public void after() {
+        factory.close();
+    }
+
     @Test
     public void testInineMustache()
     throws Exception {
@@ -0,0 +1,118 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.annotations.Test;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.testing.IO;
+
+public class FileRegionTest extends AbstractTest {
+
+    /* Larger than our buffers, so that we go around a few times */
+    private static final int SIZE = 600 * 1024;
+
+    @Test
+    public void testWholeFile()
+    throws Exception {
+        final byte[] data = data();
+        final File file = file(data);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new FileRegion(file).write(output);
+        assertEquals(output.toByteArray(), data);
+    }
+
+    @Test
+    public void testRegion()
+    throws Exception {
+        final byte[] data = data();
+        final File file = file(data);
+
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final FileRegion region = new FileRegion(file, 1234, SIZE - 5678);
+        assertEquals(region.length(), SIZE - 5678);
+        region.write(output);
+        assertEquals(output.toByteArray(), Arrays.copyOfRange(data, 1234, SIZE - 4444));
+    }
+
+    @Test
+    public void testChannelOutput()
+    throws Exception {
+        final byte[] data = data();
+        final File file = file(data);
+
+        /* A channel never accepting anything must not be written to */
+        final ChannelOutput output = new ChannelOutput();
+        new FileRegion(file, 100, 500000).write(output);
+        assertEquals(output.toByteArray(), Arrays.copyOfRange(data, 100, 500100));
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void testTruncated()
+    throws Exception {
+        final File file = file(data());
+
+        /* Truncate the file after the first buffer is written */
+        new FileRegion(file).write(new ByteArrayOutputStream() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                super.write(bytes, offset, length);
+                try (RandomAccessFile truncate = new RandomAccessFile(file, "rw")) {
+                    truncate.setLength(size());
+                } catch (Exception exception) {
+                    throw new IllegalStateException(exception);
+                }
+            }
+        });
+    }
+
+    /* ====================================================================== */
+
+    private static byte[] data() {
+        final byte[] data = new byte[SIZE];
+        new Random().nextBytes(data);
+        return data;
+    }
+
+    private static File file(byte[] data)
+    throws Exception {
+        final File file = new File(IO.makeTempDir(), "region.bin");
+        IO.copy(data, file);
+        return file;
+    }
+
+    private static final class ChannelOutput extends ByteArrayOutputStream implements WritableByteChannel {
+
+        @Override
+        public int write(ByteBuffer buffer) {
+            return 0;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
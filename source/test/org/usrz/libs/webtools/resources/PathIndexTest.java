@@ -0,0 +1,88 @@
+/* ========================================================================== *
+ * Copyright 2014 USRZ.com and Pier Paolo Fumagalli                           *
+ * -------------------------------------------------------------------------- *
+ * Licensed under the Apache License, Version 2.0 (the "License");            *
+ * you may not use this file except in compliance with the License.           *
+ * You may obtain a copy of the License at                                    *
+ *                                                                            *
+ *  http://www.apache.org/licenses/LICENSE-2.0                                *
+ *                                                                            *
+ * Unless required by applicable law or agreed to in writing, software        *
+ * distributed under the License is distributed on an "AS IS" BASIS,          *
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.   *
+ * See the License for the specific language governing permissions and        *
+ * limitations under the License.                                             *
+ * ========================================================================== */
+package org.usrz.libs.webtools.resources;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+import org.usrz.libs.testing.AbstractTest;
+import org.usrz.libs.testing.IO;
+
+public class PathIndexTest extends AbstractTest {
+
+    @Test
+    public void testUpdate()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File directory = new File(root, "directory");
+        assertTrue(directory.mkdir());
+        IO.copy("foo".getBytes(), new File(directory, "foo.txt"));
+
+        final PathIndex index = new PathIndex(root);
+        assertTrue(index.get("directory").isDirectory());
+        assertTrue(index.get("directory/foo.txt").isFile());
+        assertNull(index.get("directory/bar.txt"));
+
+        /* New files are added, removed ones forgotten */
+        IO.copy("bar".getBytes(), new File(directory, "bar.txt"));
+        assertTrue(new File(directory, "foo.txt").delete());
+        index.update(directory);
+        assertTrue(index.get("directory/bar.txt").isFile());
+        assertNull(index.get("directory/foo.txt"));
+
+        /* Removed directories take their contents with them */
+        assertTrue(new File(directory, "bar.txt").delete());
+        assertTrue(directory.delete());
+        index.update(directory);
+        assertNull(index.get("directory"));
+        assertNull(index.get("directory/bar.txt"));
+        assertEquals(index.size(), 0);
+    }
+
+    @Test
+    public void testLookupsWhileUpdating()
+    throws Exception {
+        final File root = IO.makeTempDir();
+        final File directory = new File(root, "directory");
+        assertTrue(directory.mkdir());
+        for (int x = 0; x < 100; x ++) IO.copy("foo".getBytes(), new File(directory, "file" + x + ".txt"));
+        final File file = new File(directory, "file50.txt");
+
+        final PathIndex index = new PathIndex(root);
+
+        /* Existing files must never disappear while being updated */
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            while (! done.get()) {
+                if (index.get("directory/file50.txt") == null) failure.set("File missing");
+                if (index.get("directory/file99.txt") == null) failure.set("Sibling missing");
+            }
+        });
+        reader.start();
+
+        for (int x = 0; x < 200; x ++) {
+            IO.copy(("foo" + x).getBytes(), file);
+            index.update(x % 2 == 0 ? file : directory);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get(), failure.get());
+    }
+}